@@ -0,0 +1,140 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.net.Uri;
+import android.text.TextUtils;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
+import com.google.android.exoplayer2.extractor.Extractor;
+import com.google.android.exoplayer2.extractor.ExtractorsFactory;
+import com.google.android.exoplayer2.extractor.mkv.MatroskaExtractor;
+import com.google.android.exoplayer2.extractor.mp3.Mp3Extractor;
+import com.google.android.exoplayer2.extractor.mp4.Mp4Extractor;
+import com.google.android.exoplayer2.extractor.ogg.OggExtractor;
+import com.google.android.exoplayer2.extractor.ts.AdtsExtractor;
+
+import java.util.Locale;
+
+/**
+ * Extractors for the audio containers we stream: MP3, AAC (ADTS), M4A, and Opus or Vorbis in Ogg or WebM.
+ * <p>
+ * A hinted container is sniffed by its single extractor, so the stream is not probed by the other extractors
+ * {@link DefaultExtractorsFactory} knows. Without a hint the container guessed from the url's extension is tried first,
+ * followed by the other audio containers in case the extension lies.
+ */
+class AudioExtractorsFactory implements ExtractorsFactory {
+    static final String CONTAINER_MP3 = "mp3";
+    static final String CONTAINER_AAC = "aac";
+    static final String CONTAINER_M4A = "m4a";
+    static final String CONTAINER_OGG = "ogg";
+    static final String CONTAINER_WEBM = "webm";
+
+    /**
+     * mp3 last since its sync word check is the weakest
+     */
+    private static final String[] SNIFF_ORDER = {CONTAINER_M4A, CONTAINER_WEBM, CONTAINER_OGG, CONTAINER_AAC, CONTAINER_MP3};
+    private static final AudioExtractorsFactory ANY = new AudioExtractorsFactory(null, false);
+
+    @Nullable
+    private final String container;
+    /**
+     * whether only the extractor of {@link #container} is used
+     */
+    private final boolean exclusive;
+
+    private AudioExtractorsFactory(@Nullable String container, boolean exclusive) {
+        this.container = container;
+        this.exclusive = exclusive;
+    }
+
+    /**
+     * @param hint a container name, file extension or MIME type, e.g. {@code mp3}, {@code .m4a} or {@code audio/ogg}; the
+     *             url's extension is used if null
+     */
+    static AudioExtractorsFactory of(@Nullable String hint, Uri uri) {
+        String container = toContainer(hint);
+        if (container != null) {
+            return new AudioExtractorsFactory(container, true);
+        }
+        String path = uri.getLastPathSegment();
+        int dot = path == null ? -1 : path.lastIndexOf('.');
+        container = dot < 0 ? null : toContainer(path.substring(dot + 1));
+        return container != null ? new AudioExtractorsFactory(container, false) : ANY;
+    }
+
+    @Nullable
+    private static String toContainer(@Nullable String hint) {
+        if (TextUtils.isEmpty(hint)) {
+            return null;
+        }
+        switch (hint.toLowerCase(Locale.US)) {
+            case "mp3":
+            case ".mp3":
+            case "audio/mpeg":
+            case "audio/mp3":
+                return CONTAINER_MP3;
+            case "aac":
+            case ".aac":
+            case "adts":
+            case "audio/aac":
+            case "audio/aacp":
+                return CONTAINER_AAC;
+            case "m4a":
+            case ".m4a":
+            case "mp4":
+            case ".mp4":
+            case "audio/mp4":
+            case "audio/x-m4a":
+                return CONTAINER_M4A;
+            case "ogg":
+            case ".ogg":
+            case "oga":
+            case "opus":
+            case ".opus":
+            case "audio/ogg":
+            case "audio/opus":
+                return CONTAINER_OGG;
+            case "webm":
+            case ".webm":
+            case "mka":
+            case "audio/webm":
+                return CONTAINER_WEBM;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Extractor[] createExtractors() {
+        if (exclusive) {
+            return new Extractor[]{createExtractor(container)};
+        }
+        Extractor[] extractors = new Extractor[SNIFF_ORDER.length];
+        int i = 0;
+        if (container != null) {
+            extractors[i++] = createExtractor(container);
+        }
+        for (String other : SNIFF_ORDER) {
+            if (!other.equals(container)) {
+                extractors[i++] = createExtractor(other);
+            }
+        }
+        return extractors;
+    }
+
+    private static Extractor createExtractor(String container) {
+        switch (container) {
+            case CONTAINER_MP3:
+                return new Mp3Extractor();
+            case CONTAINER_AAC:
+                return new AdtsExtractor();
+            case CONTAINER_M4A:
+                return new Mp4Extractor();
+            case CONTAINER_OGG:
+                return new OggExtractor();
+            default:
+                return new MatroskaExtractor();
+        }
+    }
+}
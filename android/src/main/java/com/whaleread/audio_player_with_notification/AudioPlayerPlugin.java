@@ -1,8 +1,19 @@
 package com.whaleread.audio_player_with_notification;
 
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
@@ -16,56 +27,171 @@ public class AudioPlayerPlugin implements MethodCallHandler {
 
     private final MethodChannel channel;
 
+    private final EventBatcher events = new EventBatcher();
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
     private MediaPlayerDelegate player;
 
     public static void registerWith(final Registrar registrar) {
         final MethodChannel channel = new MethodChannel(registrar.messenger(), ID);
-        channel.setMethodCallHandler(new AudioPlayerPlugin(registrar, channel));
+        AudioPlayerPlugin plugin = new AudioPlayerPlugin(registrar, channel);
+        channel.setMethodCallHandler(plugin);
+        new EventChannel(registrar.messenger(), ID + "/events").setStreamHandler(plugin.events);
     }
 
     private AudioPlayerPlugin(final Registrar registrar, final MethodChannel channel) {
         this.channel = channel;
         this.channel.setMethodCallHandler(this);
         this.player = new MediaPlayerDelegate(registrar.context().getApplicationContext());
+        ((Application) registrar.context().getApplicationContext()).registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            private int startedActivities = 0;
+
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+                if (startedActivities++ == 0) {
+                    player.setAppInForeground(true);
+                }
+            }
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+                if (--startedActivities == 0) {
+                    player.setAppInForeground(false);
+                }
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+            }
+        });
         this.player.setListener(new MediaPlayerListener() {
             @Override
             public void onPlay() {
-                channel.invokeMethod("onPlay", null);
+                events.onStatus(MediaPlayerService.PLAYER_STATUS_PLAYING, "onPlay", null);
             }
 
             @Override
             public void onPause() {
-                channel.invokeMethod("onPause", null);
+                events.onStatus(MediaPlayerService.PLAYER_STATUS_PAUSED, "onPause", null);
             }
 
             @Override
             public void onStop() {
-                channel.invokeMethod("onStop", null);
+                events.onStatus(MediaPlayerService.PLAYER_STATUS_STOPPED, "onStop", null);
             }
 
             @Override
             public void onComplete() {
-                channel.invokeMethod("onComplete", null);
+                events.onStatus(MediaPlayerService.PLAYER_STATUS_COMPLETED, "onComplete", null);
             }
 
             @Override
             public void onError(String message) {
-                channel.invokeMethod("onError", message);
+                events.onStatus(MediaPlayerService.PLAYER_STATUS_ERROR, "onError", message);
             }
 
             @Override
             public void onDuration(long duration) {
-                channel.invokeMethod("onDuration", duration);
+                events.onEvent("onDuration", duration);
             }
 
             @Override
             public void onPosition(long position) {
-                channel.invokeMethod("onPosition", position);
+                events.onPosition(position);
             }
 
             @Override
             public void onBuffer(int percent) {
-                channel.invokeMethod("onBuffer", percent);
+                events.onBuffer(percent);
+            }
+
+            @Override
+            public void onResumeLatency(long latency, boolean warm) {
+                Map<String, Object> args = new HashMap<>();
+                args.put("latency", latency);
+                args.put("warm", warm);
+                events.onEvent("onResumeLatency", args);
+            }
+
+            @Override
+            public void onTrackIndexChanged(int index) {
+                events.onEvent("onTrackIndexChanged", index);
+            }
+
+            @Override
+            public void onPrefetchUsed(String url, long prefetchedBytes, long usedBytes) {
+                Map<String, Object> args = new HashMap<>();
+                args.put("url", url);
+                args.put("prefetchedBytes", prefetchedBytes);
+                args.put("usedBytes", usedBytes);
+                events.onEvent("onPrefetchUsed", args);
+            }
+
+            @Override
+            public void onMetrics(Map<String, Object> metrics) {
+                events.onEvent("onMetrics", metrics);
+            }
+
+            @Override
+            public void onDownloadProgress(String url, int state, long downloadedBytes, long contentLength) {
+                Map<String, Object> args = new HashMap<>();
+                args.put("url", url);
+                args.put("state", state);
+                args.put("downloadedBytes", downloadedBytes);
+                args.put("contentLength", contentLength);
+                events.onEvent("onDownloadProgress", args);
+            }
+
+            @Override
+            public void onBitrateChanged(int bitrate, String url, String reason) {
+                Map<String, Object> args = new HashMap<>();
+                args.put("bitrate", bitrate);
+                args.put("url", url);
+                args.put("reason", reason);
+                events.onEvent("onBitrateChanged", args);
+            }
+
+            @Override
+            public void onSleepTimerFired() {
+                events.onEvent("onSleepTimer", null);
+            }
+
+            @Override
+            public void onCue(int id, long position) {
+                Map<String, Object> args = new HashMap<>();
+                args.put("id", id);
+                args.put("position", position);
+                events.onEvent("onCue", args);
+            }
+
+            @Override
+            public void onSpeedChanged(float speed, float pitch) {
+                Map<String, Object> args = new HashMap<>();
+                args.put("speed", (double) speed);
+                args.put("pitch", (double) pitch);
+                events.onEvent("onSpeedChanged", args);
+            }
+
+            @Override
+            public void onPlayerEvent(int playerId, String method, Object args) {
+                events.onEvent(method, args, playerId);
             }
         });
     }
@@ -81,25 +207,79 @@ public class AudioPlayerPlugin implements MethodCallHandler {
     }
 
     private void handleMethodCall(final MethodCall call, final MethodChannel.Result response) {
+        Integer playerId = call.argument("playerId");
+        if (playerId != null && playerId != 0) {
+            handleSessionCall(playerId, call, response);
+            return;
+        }
         switch (call.method) {
             case "init": {
                 Boolean audioFocus = call.argument("audioFocus");
                 Integer positionNotifyInterval = call.argument("positionNotifyInterval");
                 Boolean enableLogging = call.argument("enableLogging");
                 String notificationName = call.argument("notificationName");
-                player.createPlayer(audioFocus, positionNotifyInterval, enableLogging, notificationName);
+                Boolean warmPause = call.argument("warmPause");
+                Integer warmPauseTimeout = call.argument("warmPauseTimeout");
+                player.createPlayer(audioFocus, positionNotifyInterval, enableLogging, notificationName, warmPause, warmPauseTimeout);
+                Boolean positionListening = call.argument("positionListening");
+                if (positionListening != null) {
+                    player.setPositionListening(positionListening);
+                }
+                Map<String, Object> bufferingPolicy = call.argument("bufferingPolicy");
+                Boolean audioOnly = call.argument("audioOnly");
+                if (bufferingPolicy != null || audioOnly != null) {
+                    player.updateOptions(null, null, null, null, bufferingPolicy == null ? null : BufferingPolicy.fromMap(bufferingPolicy), audioOnly);
+                }
+                Integer maxParallelDownloads = call.argument("maxParallelDownloads");
+                if (maxParallelDownloads != null) {
+                    player.setMaxParallelDownloads(maxParallelDownloads);
+                }
+                Number metricsInterval = call.argument("metricsInterval");
+                if (metricsInterval != null) {
+                    player.setMetricsInterval(metricsInterval.longValue());
+                }
+                Number memoryBudgetBytes = call.argument("memoryBudgetBytes");
+                if (memoryBudgetBytes != null) {
+                    player.setMemoryBudget(memoryBudgetBytes.longValue());
+                }
+                Boolean useOkHttp = call.argument("useOkHttp");
+                if (useOkHttp != null) {
+                    player.configureHttpStack(useOkHttp);
+                }
+                Boolean cacheEnabled = call.argument("cacheEnabled");
+                if (cacheEnabled != null) {
+                    Number cacheMaxBytes = call.argument("cacheMaxBytes");
+                    List<String> cacheIgnoredQueryParams = call.argument("cacheIgnoredQueryParams");
+                    player.configureCache(cacheEnabled, cacheMaxBytes == null ? null : cacheMaxBytes.longValue(), cacheIgnoredQueryParams);
+                }
                 break;
             }
             case "dispose": {
                 player.destroyPlayer();
-                break;
+                response.success(1);
+                return;
             }
             case "play": {
                 final String url = call.argument("url");
                 Double volume = call.argument("volume");
                 Integer position = call.argument("position");
-                String headers = call.argument("headers");
-                player.play(url, volume == null ? -1 : volume.floatValue(), position == null ? -1 : position, headers);
+                Map<String, String> headers = call.argument("headers");
+                String containerHint = call.argument("containerHint");
+                player.play(url, volume == null ? -1 : volume.floatValue(), position == null ? -1 : position, HeaderSet.of(headers), containerHint);
+                break;
+            }
+            case "playLadder": {
+                List<String> urls = call.argument("urls");
+                List<Integer> bitrates = call.argument("bitrates");
+                Double volume = call.argument("volume");
+                Integer position = call.argument("position");
+                Map<String, String> headers = call.argument("headers");
+                String containerHint = call.argument("containerHint");
+                if (urls == null || urls.isEmpty() || bitrates == null || bitrates.size() != urls.size()) {
+                    response.error("InvalidArguments", "expected as many bitrates as urls", null);
+                    return;
+                }
+                player.playLadder(urls, bitrates, volume == null ? -1 : volume.floatValue(), position == null ? -1 : position, HeaderSet.of(headers), containerHint);
                 break;
             }
             case "resume": {
@@ -116,7 +296,8 @@ public class AudioPlayerPlugin implements MethodCallHandler {
             }
             case "seek": {
                 final int position = call.argument("position");
-                player.seekTo(position);
+                Boolean dragging = call.argument("dragging");
+                player.seekTo(position, dragging != null && dragging);
                 break;
             }
             case "setVolume": {
@@ -126,10 +307,141 @@ public class AudioPlayerPlugin implements MethodCallHandler {
             }
             case "setUrl": {
                 final String url = call.argument("url");
-                String headers = call.argument("headers");
-                player.setUrl(url, headers);
+                Map<String, String> headers = call.argument("headers");
+                player.setUrl(url, HeaderSet.of(headers));
                 break;
             }
+            case "updateOptions": {
+                Boolean audioFocus = call.argument("audioFocus");
+                Integer positionNotifyInterval = call.argument("positionNotifyInterval");
+                Boolean warmPause = call.argument("warmPause");
+                Integer warmPauseTimeout = call.argument("warmPauseTimeout");
+                Map<String, Object> bufferingPolicy = call.argument("bufferingPolicy");
+                Boolean audioOnly = call.argument("audioOnly");
+                player.updateOptions(audioFocus, positionNotifyInterval, warmPause, warmPauseTimeout,
+                        bufferingPolicy == null ? null : BufferingPolicy.fromMap(bufferingPolicy), audioOnly);
+                break;
+            }
+            case "setSpeed": {
+                Number speed = call.argument("speed");
+                Number pitch = call.argument("pitch");
+                player.setSpeed(speed == null ? 1 : speed.floatValue(), pitch == null ? 1 : pitch.floatValue());
+                break;
+            }
+            case "setCuePoints": {
+                List<Number> positions = call.argument("positions");
+                long[] cuePositions = new long[positions == null ? 0 : positions.size()];
+                for (int i = 0; i < cuePositions.length; i++) {
+                    cuePositions[i] = positions.get(i).longValue();
+                }
+                player.setCuePoints(cuePositions);
+                break;
+            }
+            case "setSleepTimer": {
+                Number millis = call.argument("millis");
+                Boolean endOfTrack = call.argument("endOfTrack");
+                Number fadeMillis = call.argument("fadeMillis");
+                player.setSleepTimer(millis == null ? 0 : millis.longValue(), endOfTrack != null && endOfTrack,
+                        fadeMillis == null ? 0 : fadeMillis.longValue());
+                break;
+            }
+            case "cancelSleepTimer": {
+                player.cancelSleepTimer();
+                break;
+            }
+            case "setPositionListening": {
+                final boolean listening = call.argument("listening");
+                player.setPositionListening(listening);
+                break;
+            }
+            case "setQueue": {
+                List<String> urls = call.argument("urls");
+                List<Map<String, String>> headers = call.argument("headers");
+                List<HeaderSet> headerSets = null;
+                if (headers != null) {
+                    headerSets = new ArrayList<>(headers.size());
+                    for (Map<String, String> itemHeaders : headers) {
+                        headerSets.add(HeaderSet.of(itemHeaders));
+                    }
+                }
+                Integer startIndex = call.argument("startIndex");
+                player.setQueue(urls, headerSets, startIndex == null ? 0 : startIndex);
+                break;
+            }
+            case "enqueue": {
+                String url = call.argument("url");
+                Map<String, String> headers = call.argument("headers");
+                player.enqueue(url, HeaderSet.of(headers));
+                break;
+            }
+            case "skipNext": {
+                player.skipNext();
+                break;
+            }
+            case "skipPrevious": {
+                player.skipPrevious();
+                break;
+            }
+            case "jumpTo": {
+                final int index = call.argument("index");
+                player.jumpTo(index);
+                break;
+            }
+            case "prefetch": {
+                String url = call.argument("url");
+                Map<String, String> headers = call.argument("headers");
+                Number bytes = call.argument("bytes");
+                Number millis = call.argument("millis");
+                response.success(player.prefetch(url, HeaderSet.of(headers), bytes == null ? null : bytes.longValue(), millis == null ? null : millis.longValue()) ? 1 : 0);
+                return;
+            }
+            case "download": {
+                String url = call.argument("url");
+                Map<String, String> headers = call.argument("headers");
+                player.download(url, HeaderSet.of(headers));
+                break;
+            }
+            case "cancelDownload": {
+                String url = call.argument("url");
+                player.cancelDownload(url);
+                break;
+            }
+            case "removeDownload": {
+                String url = call.argument("url");
+                player.removeDownload(url);
+                break;
+            }
+            case "getDownloads": {
+                // the getters read on the playback thread, the result is answered on the main thread
+                player.getDownloads(value -> mainHandler.post(() -> response.success(value)));
+                return;
+            }
+            case "getHttpStats": {
+                player.getHttpStats(value -> mainHandler.post(() -> response.success(value)));
+                return;
+            }
+            case "ackEvents": {
+                Number seq = call.argument("seq");
+                events.ack(seq.longValue());
+                response.success(1);
+                return;
+            }
+            case "getMetrics": {
+                player.getMetrics(value -> mainHandler.post(() -> response.success(value)));
+                return;
+            }
+            case "getEventStats": {
+                response.success(events.getStats());
+                return;
+            }
+            case "getNotificationStats": {
+                player.getNotificationStats(value -> mainHandler.post(() -> response.success(value)));
+                return;
+            }
+            case "getCacheStats": {
+                player.getCacheStats(value -> mainHandler.post(() -> response.success(value)));
+                return;
+            }
             case "updateNotification": {
                 String title = call.argument("title");
                 String subtitle = call.argument("subtitle");
@@ -148,6 +460,58 @@ public class AudioPlayerPlugin implements MethodCallHandler {
                 return;
             }
         }
-        response.success(1);
+        // completes the Dart future with the player status once the command is applied, or collapsed with a later one
+        player.whenApplied((seq, status) -> mainHandler.post(() -> response.success(status)));
+    }
+
+    /**
+     * Calls for a secondary player, which supports playback controls only.
+     */
+    private void handleSessionCall(final int playerId, final MethodCall call, final MethodChannel.Result response) {
+        switch (call.method) {
+            case "play": {
+                final String url = call.argument("url");
+                Double volume = call.argument("volume");
+                Integer position = call.argument("position");
+                Map<String, String> headers = call.argument("headers");
+                String containerHint = call.argument("containerHint");
+                Integer priority = call.argument("priority");
+                player.playSession(playerId, url, volume == null ? -1 : volume.floatValue(), position == null ? -1 : position,
+                        HeaderSet.of(headers), containerHint, priority == null ? PlayerSession.PRIORITY_NORMAL : priority);
+                break;
+            }
+            case "resume": {
+                player.resumeSession(playerId);
+                break;
+            }
+            case "pause": {
+                player.pauseSession(playerId);
+                break;
+            }
+            case "stop": {
+                player.stopSession(playerId);
+                break;
+            }
+            case "seek": {
+                final int position = call.argument("position");
+                player.seekSession(playerId, position);
+                break;
+            }
+            case "setVolume": {
+                final double volume = call.argument("volume");
+                player.setSessionVolume(playerId, (float) volume);
+                break;
+            }
+            case "dispose": {
+                player.releaseSession(playerId);
+                break;
+            }
+            default: {
+                response.error("Unsupported", call.method + " is only supported by player 0", null);
+                return;
+            }
+        }
+        // the session has no status of its own, the future completes with 1 once the command is applied
+        player.whenApplied((seq, status) -> mainHandler.post(() -> response.success(1)));
     }
 }
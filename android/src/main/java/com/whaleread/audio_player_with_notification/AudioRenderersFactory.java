@@ -0,0 +1,45 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.content.Context;
+import android.os.Handler;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.RenderersFactory;
+import com.google.android.exoplayer2.audio.AudioCapabilities;
+import com.google.android.exoplayer2.audio.AudioRendererEventListener;
+import com.google.android.exoplayer2.audio.MediaCodecAudioRenderer;
+import com.google.android.exoplayer2.drm.DrmSessionManager;
+import com.google.android.exoplayer2.drm.FrameworkMediaCrypto;
+import com.google.android.exoplayer2.mediacodec.MediaCodecSelector;
+import com.google.android.exoplayer2.metadata.MetadataOutput;
+import com.google.android.exoplayer2.text.TextOutput;
+import com.google.android.exoplayer2.video.VideoRendererEventListener;
+
+/**
+ * Builds only the {@link MediaCodecAudioRenderer}.
+ * <p>
+ * The default factory also builds video, text, metadata and camera motion renderers on every player build, and each track
+ * selection checks every track against them, although our streams never have such tracks.
+ */
+class AudioRenderersFactory implements RenderersFactory {
+    private final Context context;
+
+    AudioRenderersFactory(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public Renderer[] createRenderers(Handler eventHandler,
+                                      VideoRendererEventListener videoRendererEventListener,
+                                      AudioRendererEventListener audioRendererEventListener,
+                                      TextOutput textRendererOutput,
+                                      MetadataOutput metadataRendererOutput,
+                                      @Nullable DrmSessionManager<FrameworkMediaCrypto> drmSessionManager) {
+        return new Renderer[]{
+                new MediaCodecAudioRenderer(context, MediaCodecSelector.DEFAULT, drmSessionManager, false,
+                        eventHandler, audioRendererEventListener, AudioCapabilities.getCapabilities(context))
+        };
+    }
+}
@@ -0,0 +1,89 @@
+package com.whaleread.audio_player_with_notification;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Progressive renditions of one item at different bitrates, e.g. 32, 64 and 128 kbps, of which one is played.
+ * <p>
+ * Switching renditions re-prepares the player, dropping its buffer, so the service only switches where the buffer is empty
+ * or about to be dropped anyway: when playback starts, on an exact seek, on a cold resume, and down a step on a stall that
+ * lasts {@link #STALL_SWITCH_DELAY} ms.
+ */
+class BitrateLadder {
+    static final String REASON_INITIAL = "initial";
+    static final String REASON_SEEK = "seek";
+    static final String REASON_RESUME = "resume";
+    static final String REASON_STALL = "stall";
+    /**
+     * bitrate changes picked by an HLS or DASH source
+     */
+    static final String REASON_ADAPTIVE = "adaptive";
+
+    static final long STALL_SWITCH_DELAY = 1000;
+    /**
+     * share of the bandwidth estimate a rendition may use, as ExoPlayer's adaptive track selection does
+     */
+    private static final float BANDWIDTH_FRACTION = 0.75f;
+
+    private final String[] urls;
+    /**
+     * bits per second, ascending
+     */
+    private final int[] bitrates;
+    final HeaderSet headers;
+    final String containerHint;
+    /**
+     * index of the rendition being played, -1 before the first one is picked
+     */
+    int current = -1;
+
+    /**
+     * @param bitrates bits per second of {@code urls}, in any order
+     */
+    BitrateLadder(List<String> urls, List<Integer> bitrates, HeaderSet headers, String containerHint) {
+        if (urls.isEmpty() || urls.size() != bitrates.size()) {
+            throw new IllegalArgumentException("expected as many bitrates as urls, got " + bitrates.size() + " for " + urls.size());
+        }
+        Integer[] order = new Integer[urls.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(bitrates.get(a), bitrates.get(b)));
+        this.urls = new String[order.length];
+        this.bitrates = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            this.urls[i] = urls.get(order[i]);
+            this.bitrates[i] = bitrates.get(order[i]);
+        }
+        this.headers = headers;
+        this.containerHint = containerHint;
+    }
+
+    /**
+     * @return the highest rendition fitting in the usable share of {@code bitrateEstimate}, the lowest one if none fits
+     */
+    int select(long bitrateEstimate) {
+        long usable = (long) (bitrateEstimate * BANDWIDTH_FRACTION);
+        int index = 0;
+        while (index + 1 < bitrates.length && bitrates[index + 1] <= usable) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * @return a rendition at least one step below the current one, lower still if the estimate says so
+     */
+    int selectAfterStall(long bitrateEstimate) {
+        return Math.max(0, Math.min(current - 1, select(bitrateEstimate)));
+    }
+
+    String getUrl(int index) {
+        return urls[index];
+    }
+
+    int getBitrate(int index) {
+        return bitrates[index];
+    }
+}
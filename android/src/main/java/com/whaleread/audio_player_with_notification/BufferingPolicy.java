@@ -0,0 +1,157 @@
+package com.whaleread.audio_player_with_notification;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Buffer durations and byte budget of the player's {@link LoadControl}.
+ * <p>
+ * Built from a preset with optional per-field overrides, see {@link #fromMap(Map)}.
+ */
+final class BufferingPolicy {
+    static final String PRESET_LOW_MEMORY = "lowMemory";
+    static final String PRESET_BALANCED = "balanced";
+    static final String PRESET_AGGRESSIVE_PREFETCH = "aggressivePrefetch";
+
+    /**
+     * small buffers for spoken word, keeps the allocator around a megabyte
+     */
+    static final BufferingPolicy LOW_MEMORY = new BufferingPolicy(PRESET_LOW_MEMORY, 10000, 20000, 1500, 3000, 1024 * 1024, 0);
+    /**
+     * the ExoPlayer defaults
+     */
+    static final BufferingPolicy BALANCED = new BufferingPolicy(PRESET_BALANCED,
+            DefaultLoadControl.DEFAULT_MIN_BUFFER_MS,
+            DefaultLoadControl.DEFAULT_MAX_BUFFER_MS,
+            DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS,
+            DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS,
+            C.LENGTH_UNSET,
+            0);
+    /**
+     * long buffers that ride out flaky mobile networks, and a back buffer so short rewinds skip the network
+     */
+    static final BufferingPolicy AGGRESSIVE_PREFETCH = new BufferingPolicy(PRESET_AGGRESSIVE_PREFETCH, 60000, 180000, 2500, 8000, 16 * 1024 * 1024, 30000);
+
+    final String preset;
+    final int minBufferMs;
+    final int maxBufferMs;
+    final int bufferForPlaybackMs;
+    final int bufferForPlaybackAfterRebufferMs;
+    /**
+     * {@link C#LENGTH_UNSET} sizes the buffer from the selected tracks
+     */
+    final int targetBufferBytes;
+    final int backBufferMs;
+
+    private BufferingPolicy(String preset, int minBufferMs, int maxBufferMs, int bufferForPlaybackMs,
+                            int bufferForPlaybackAfterRebufferMs, int targetBufferBytes, int backBufferMs) {
+        this.preset = preset;
+        this.minBufferMs = minBufferMs;
+        this.maxBufferMs = maxBufferMs;
+        this.bufferForPlaybackMs = bufferForPlaybackMs;
+        this.bufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+        this.targetBufferBytes = targetBufferBytes;
+        this.backBufferMs = backBufferMs;
+    }
+
+    /**
+     * @param args {@code preset} (default balanced) and overrides of {@code minBufferMs}, {@code maxBufferMs},
+     *             {@code bufferForPlaybackMs}, {@code bufferForPlaybackAfterRebufferMs}, {@code targetBufferBytes} and {@code backBufferMs}
+     */
+    static BufferingPolicy fromMap(Map<String, Object> args) {
+        BufferingPolicy base = ofPreset((String) args.get("preset"));
+        BufferingPolicy policy = new BufferingPolicy(base.preset,
+                intOr(args.get("minBufferMs"), base.minBufferMs),
+                intOr(args.get("maxBufferMs"), base.maxBufferMs),
+                intOr(args.get("bufferForPlaybackMs"), base.bufferForPlaybackMs),
+                intOr(args.get("bufferForPlaybackAfterRebufferMs"), base.bufferForPlaybackAfterRebufferMs),
+                intOr(args.get("targetBufferBytes"), base.targetBufferBytes),
+                intOr(args.get("backBufferMs"), base.backBufferMs));
+        if (policy.minBufferMs > policy.maxBufferMs
+                || policy.bufferForPlaybackMs > policy.minBufferMs
+                || policy.bufferForPlaybackAfterRebufferMs > policy.minBufferMs) {
+            throw new IllegalArgumentException("buffering policy requires bufferForPlaybackMs and bufferForPlaybackAfterRebufferMs <= minBufferMs <= maxBufferMs");
+        }
+        return policy.equals(base) ? base : policy;
+    }
+
+    static BufferingPolicy ofPreset(@Nullable String preset) {
+        if (preset == null || PRESET_BALANCED.equals(preset)) {
+            return BALANCED;
+        }
+        if (PRESET_LOW_MEMORY.equals(preset)) {
+            return LOW_MEMORY;
+        }
+        if (PRESET_AGGRESSIVE_PREFETCH.equals(preset)) {
+            return AGGRESSIVE_PREFETCH;
+        }
+        throw new IllegalArgumentException("unknown buffering preset " + preset);
+    }
+
+    /**
+     * @param allocator         shared by the service's players, a player stops buffering once all of them together hold
+     *                          {@code targetBufferBytes}
+     * @param targetBufferBytes overrides {@link #targetBufferBytes}, e.g. the player's share of the memory budget
+     */
+    LoadControl createLoadControl(DefaultAllocator allocator, int targetBufferBytes) {
+        return new DefaultLoadControl.Builder()
+                .setAllocator(allocator)
+                .setBufferDurationsMs(minBufferMs, maxBufferMs, bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs)
+                .setTargetBufferBytes(targetBufferBytes)
+                .setBackBuffer(backBufferMs, false)
+                .createDefaultLoadControl();
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("preset", preset);
+        map.put("minBufferMs", minBufferMs);
+        map.put("maxBufferMs", maxBufferMs);
+        map.put("bufferForPlaybackMs", bufferForPlaybackMs);
+        map.put("bufferForPlaybackAfterRebufferMs", bufferForPlaybackAfterRebufferMs);
+        map.put("targetBufferBytes", targetBufferBytes);
+        map.put("backBufferMs", backBufferMs);
+        return map;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BufferingPolicy)) {
+            return false;
+        }
+        BufferingPolicy other = (BufferingPolicy) o;
+        return preset.equals(other.preset)
+                && minBufferMs == other.minBufferMs
+                && maxBufferMs == other.maxBufferMs
+                && bufferForPlaybackMs == other.bufferForPlaybackMs
+                && bufferForPlaybackAfterRebufferMs == other.bufferForPlaybackAfterRebufferMs
+                && targetBufferBytes == other.targetBufferBytes
+                && backBufferMs == other.backBufferMs;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = preset.hashCode();
+        result = 31 * result + minBufferMs;
+        result = 31 * result + maxBufferMs;
+        result = 31 * result + bufferForPlaybackMs;
+        result = 31 * result + bufferForPlaybackAfterRebufferMs;
+        result = 31 * result + targetBufferBytes;
+        result = 31 * result + backBufferMs;
+        return result;
+    }
+
+    private static int intOr(@Nullable Object value, int fallback) {
+        return value == null ? fallback : ((Number) value).intValue();
+    }
+}
@@ -0,0 +1,275 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Player commands waiting for the playback thread, applied in the order of their sequence numbers.
+ * <p>
+ * A command is collapsed into the one submitted right before it while that one is still waiting: the last of a pause and a
+ * resume wins, two toggles cancel out if the player is playing or paused when they are applied, the last volume and the
+ * last url win, and a url followed by play becomes a single prepare. The
+ * queue is drained at most once per {@link #WINDOW_MILLIS}, so the tail of a burst of taps collapses before it reaches the
+ * player.
+ */
+class CommandQueue {
+    interface Ack {
+        /**
+         * Called on the playback thread.
+         *
+         * @param seq    sequence number the command was applied at, a collapsed command shares it with the one it joined
+         * @param status player status after the command
+         */
+        void onApplied(long seq, int status);
+    }
+
+    static final long WINDOW_MILLIS = 50;
+
+    static final int TYPE_OTHER = 0;
+    static final int TYPE_PLAY = 1;
+    static final int TYPE_TOGGLE = 2;
+    static final int TYPE_PAUSE = 3;
+    static final int TYPE_RESUME = 4;
+    static final int TYPE_VOLUME = 5;
+    static final int TYPE_SET_URL = 6;
+    /**
+     * two toggles, applied only if they do not cancel out
+     */
+    private static final int TYPE_TOGGLE_PAIR = 7;
+
+    private static class Entry {
+        /**
+         * assigned on submit
+         */
+        long seq;
+        int type;
+        MediaPlayerService.Command command;
+        String url;
+        HeaderSet headers;
+        float volume;
+        int position;
+        String containerHint;
+        final List<Ack> acks = new ArrayList<>(1);
+
+        Entry(int type, MediaPlayerService.Command command) {
+            this.type = type;
+            this.command = command;
+        }
+    }
+
+    private final MediaPlayerService service;
+    private final Handler handler;
+    private final PlaybackMetrics metrics;
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private final Runnable drainRunnable = this::drain;
+    private long seq = 0;
+    private boolean scheduled = false;
+    private long lastDrainAt = 0;
+    private long submitted = 0;
+    private long collapsed = 0;
+
+    CommandQueue(MediaPlayerService service, Handler handler, PlaybackMetrics metrics) {
+        this.service = service;
+        this.handler = handler;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Callable from any thread.
+     *
+     * @return the sequence number of the command
+     */
+    long submit(int type, MediaPlayerService.Command command) {
+        return submit(new Entry(type, command));
+    }
+
+    /**
+     * @param url null plays the queue
+     */
+    long submitPlay(@Nullable String url, float volume, int position, HeaderSet headers, @Nullable String containerHint) {
+        Entry entry = new Entry(TYPE_PLAY, s -> s.play(url, volume, position, headers, containerHint));
+        entry.url = url;
+        entry.headers = headers;
+        entry.volume = volume;
+        entry.position = position;
+        entry.containerHint = containerHint;
+        return submit(entry);
+    }
+
+    long submitSetUrl(String url, HeaderSet headers) {
+        Entry entry = new Entry(TYPE_SET_URL, s -> s.changeTrack(url, headers));
+        entry.url = url;
+        entry.headers = headers;
+        return submit(entry);
+    }
+
+    /**
+     * Calls {@code ack} once the commands submitted so far are applied.
+     */
+    synchronized void whenApplied(Ack ack) {
+        Entry tail = entries.peekLast();
+        if (tail != null) {
+            tail.acks.add(ack);
+        } else {
+            // the last command is applied or being applied right now
+            long seq = this.seq;
+            handler.post(() -> ack.onApplied(seq, service.getStatus()));
+        }
+    }
+
+    /**
+     * @return {@code submitted} and {@code collapsed} commands and the {@code seq} of the last one
+     */
+    synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("submitted", submitted);
+        stats.put("collapsed", collapsed);
+        stats.put("seq", seq);
+        return stats;
+    }
+
+    /**
+     * Drops the waiting commands and acks them with the current status. Called on the playback thread.
+     */
+    void release() {
+        List<Entry> dropped;
+        synchronized (this) {
+            dropped = new ArrayList<>(entries);
+            entries.clear();
+            handler.removeCallbacks(drainRunnable);
+            scheduled = false;
+        }
+        for (Entry entry : dropped) {
+            ack(entry);
+        }
+    }
+
+    private long submit(Entry entry) {
+        long startedAt = SystemClock.elapsedRealtimeNanos();
+        long seq;
+        synchronized (this) {
+            seq = ++this.seq;
+            submitted++;
+            entry.seq = seq;
+            Entry tail = entries.peekLast();
+            if (tail != null && collapse(tail, entry)) {
+                collapsed++;
+            } else {
+                entries.addLast(entry);
+            }
+            schedule();
+        }
+        metrics.onCommandPosted(SystemClock.elapsedRealtimeNanos() - startedAt);
+        return seq;
+    }
+
+    /**
+     * @return whether {@code entry} was merged into {@code tail}, which then takes its sequence number
+     */
+    private boolean collapse(Entry tail, Entry entry) {
+        switch (entry.type) {
+            case TYPE_PAUSE:
+            case TYPE_RESUME:
+                if (tail.type != TYPE_PAUSE && tail.type != TYPE_RESUME) {
+                    return false;
+                }
+                tail.type = entry.type;
+                tail.command = entry.command;
+                break;
+            case TYPE_TOGGLE:
+                if (tail.type != TYPE_TOGGLE) {
+                    return false;
+                }
+                MediaPlayerService.Command first = tail.command;
+                MediaPlayerService.Command second = entry.command;
+                tail.type = TYPE_TOGGLE_PAIR;
+                // a stopped or completed player would start and pause, not stay as it is
+                tail.command = s -> {
+                    int status = s.getStatus();
+                    if (status != MediaPlayerService.PLAYER_STATUS_PLAYING && status != MediaPlayerService.PLAYER_STATUS_PAUSED) {
+                        first.run(s);
+                        second.run(s);
+                    }
+                };
+                break;
+            case TYPE_VOLUME:
+            case TYPE_SET_URL:
+                if (tail.type != entry.type) {
+                    return false;
+                }
+                tail.command = entry.command;
+                tail.url = entry.url;
+                tail.headers = entry.headers;
+                break;
+            case TYPE_PLAY:
+                if (tail.type != TYPE_SET_URL) {
+                    return false;
+                }
+                // prepare the url once and play it, instead of preparing it and then toggling it
+                String url = TextUtils.isEmpty(entry.url) ? tail.url : entry.url;
+                HeaderSet headers = TextUtils.isEmpty(entry.url) ? tail.headers : entry.headers;
+                String containerHint = TextUtils.isEmpty(entry.url) ? tail.containerHint : entry.containerHint;
+                float volume = entry.volume;
+                int position = entry.position;
+                tail.type = TYPE_PLAY;
+                tail.command = s -> s.playMediaPlayer(url, volume, position, headers, containerHint);
+                tail.url = url;
+                tail.headers = headers;
+                tail.volume = volume;
+                tail.position = position;
+                tail.containerHint = containerHint;
+                break;
+            default:
+                return false;
+        }
+        tail.seq = entry.seq;
+        return true;
+    }
+
+    private void schedule() {
+        if (scheduled) {
+            return;
+        }
+        scheduled = true;
+        long sinceLastDrain = SystemClock.elapsedRealtime() - lastDrainAt;
+        if (sinceLastDrain >= WINDOW_MILLIS) {
+            handler.post(drainRunnable);
+        } else {
+            handler.postDelayed(drainRunnable, WINDOW_MILLIS - sinceLastDrain);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Entry entry;
+            synchronized (this) {
+                entry = entries.pollFirst();
+                if (entry == null) {
+                    scheduled = false;
+                    lastDrainAt = SystemClock.elapsedRealtime();
+                    return;
+                }
+            }
+            long startedAt = SystemClock.elapsedRealtimeNanos();
+            entry.command.run(service);
+            metrics.onCommand(SystemClock.elapsedRealtimeNanos() - startedAt);
+            ack(entry);
+        }
+    }
+
+    private void ack(Entry entry) {
+        int status = service.getStatus();
+        for (Ack ack : entry.acks) {
+            ack.onApplied(entry.seq, status);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.os.Handler;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Tracks whether the device is online, through the default network callback from API 24 and the connectivity broadcast
+ * before.
+ */
+class ConnectivityMonitor implements ResilientLoadErrorPolicy.Connectivity {
+    interface Listener {
+        /**
+         * Called on the handler given to {@link #register} when the device goes back online.
+         */
+        void onNetworkAvailable();
+    }
+
+    private final ConnectivityManager connectivityManager;
+    private final Listener listener;
+    /**
+     * read by load error policies on loader threads
+     */
+    private volatile boolean connected;
+    @Nullable
+    private ConnectivityManager.NetworkCallback networkCallback;
+    @Nullable
+    private BroadcastReceiver receiver;
+
+    ConnectivityMonitor(Context context, Listener listener) {
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.listener = listener;
+        this.connected = checkConnected();
+    }
+
+    // CONNECTIVITY_ACTION is deprecated from API 28, but it is the only way to be told about connectivity before API 24
+    @SuppressWarnings("deprecation")
+    void register(Context context, Handler handler) {
+        if (connectivityManager != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            // the callback runs on a connectivity thread, the handler overload needs API 26
+            networkCallback = new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    handler.post(() -> update(true));
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    handler.post(() -> update(checkConnected()));
+                }
+            };
+            connectivityManager.registerDefaultNetworkCallback(networkCallback);
+        } else {
+            receiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    update(checkConnected());
+                }
+            };
+            context.registerReceiver(receiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION), null, handler);
+        }
+    }
+
+    void unregister(Context context) {
+        if (networkCallback != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            connectivityManager.unregisterNetworkCallback(networkCallback);
+            networkCallback = null;
+        }
+        if (receiver != null) {
+            context.unregisterReceiver(receiver);
+            receiver = null;
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    private void update(boolean connected) {
+        boolean wasConnected = this.connected;
+        this.connected = connected;
+        if (!wasConnected && connected) {
+            listener.onNetworkAvailable();
+        }
+    }
+
+    private boolean checkConnected() {
+        NetworkInfo info = connectivityManager == null ? null : connectivityManager.getActiveNetworkInfo();
+        // assume online when the state is unknown, so loads are not held back
+        return connectivityManager == null || (info != null && info.isConnected());
+    }
+}
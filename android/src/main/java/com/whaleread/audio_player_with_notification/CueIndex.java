@@ -0,0 +1,142 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.os.Handler;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.SimpleExoPlayer;
+
+import java.util.Arrays;
+
+/**
+ * Cue points of the current track, reported as playback crosses them.
+ * <p>
+ * Positions are kept sorted in a primitive array with their ids alongside, and only the next cue ahead of playback is armed
+ * as a {@code PlayerMessage}. When it is delivered the cues up to the playback position are reported and the following one
+ * is armed; a seek or a new timeline arms again from a binary search, so thousands of cues cost O(log n) per update and a
+ * single pending message. Seeking over cues does not report them, seeking back before a cue reports it again. Called on the
+ * playback thread.
+ */
+class CueIndex {
+    interface Listener {
+        /**
+         * @param id index of the cue in the list given to {@link #set}
+         */
+        void onCue(int id, long position);
+    }
+
+    private final Handler handler;
+    private final Listener listener;
+    private long[] positions = new long[0];
+    private int[] ids = new int[0];
+    /**
+     * cue the pending message is for
+     */
+    private int next = 0;
+    /**
+     * drops messages sent before the last {@link #arm} or {@link #disarm}
+     */
+    private int generation = 0;
+    private boolean armed = false;
+
+    CueIndex(Handler handler, Listener listener) {
+        this.handler = handler;
+        this.listener = listener;
+    }
+
+    /**
+     * Replaces the cues, arming them right away if {@code player} is given.
+     *
+     * @param positions in ms in any order, a cue's id is its index here
+     */
+    void set(long[] positions, @Nullable SimpleExoPlayer player) {
+        long[] sorted = positions.clone();
+        Arrays.sort(sorted);
+        // each id goes to the first free slot of its position, so equal positions keep their given order
+        int[] ids = new int[sorted.length];
+        int[] filled = new int[sorted.length];
+        for (int i = 0; i < positions.length; i++) {
+            int first = lowerBound(sorted, positions[i]);
+            ids[first + filled[first]++] = i;
+        }
+        this.positions = sorted;
+        this.ids = ids;
+        disarm();
+        if (player != null) {
+            arm(player);
+        }
+    }
+
+    void clear() {
+        positions = new long[0];
+        ids = new int[0];
+        disarm();
+    }
+
+    int size() {
+        return positions.length;
+    }
+
+    boolean isArmed() {
+        return armed;
+    }
+
+    /**
+     * Arms the first cue at or after the playback position of {@code player}, whose timeline must be known.
+     */
+    void arm(SimpleExoPlayer player) {
+        generation++;
+        armed = true;
+        next = lowerBound(positions, player.getCurrentPosition());
+        send(player, player.getCurrentWindowIndex());
+    }
+
+    /**
+     * Drops the pending message, e.g. when the player is prepared again or released.
+     */
+    void disarm() {
+        generation++;
+        armed = false;
+    }
+
+    private void send(SimpleExoPlayer player, int window) {
+        if (next >= positions.length) {
+            return;
+        }
+        player.createMessage((type, payload) -> {
+            if ((int) payload == generation) {
+                deliver(player, window);
+            }
+        }).setPosition(window, positions[next]).setPayload(generation).setHandler(handler).send();
+    }
+
+    private void deliver(SimpleExoPlayer player, int window) {
+        // cues closer together than the message latency are reported together, in order
+        long position = Math.max(positions[next], player.getCurrentPosition());
+        int generation = this.generation;
+        while (next < positions.length && positions[next] <= position && generation == this.generation) {
+            listener.onCue(ids[next], positions[next]);
+            next++;
+        }
+        if (generation == this.generation) {
+            send(player, window);
+        }
+    }
+
+    /**
+     * @return index of the first cue at or after {@code position}
+     */
+    private static int lowerBound(long[] positions, long position) {
+        int low = 0;
+        int high = positions.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (positions[mid] < position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
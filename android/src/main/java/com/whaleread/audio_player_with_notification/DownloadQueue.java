@@ -0,0 +1,265 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.FileDataSourceFactory;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSourceFactory;
+import com.google.android.exoplayer2.upstream.cache.CacheUtil;
+import com.google.android.exoplayer2.upstream.cache.NoOpCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Downloads whole urls for offline playback into a non-evicting cache in the app's files directory.
+ * <p>
+ * Downloads run FIFO, at most {@link #setMaxParallelDownloads(int)} at a time. {@link CacheUtil} only requests the ranges
+ * that are not on disk yet, so downloading a url again resumes it, also after a restart. Playback reads downloaded bytes
+ * through {@link #createDataSourceFactory(DataSource.Factory)} and streams the missing ones.
+ */
+class DownloadQueue {
+    interface Listener {
+        void onDownloadProgress(String url, int state, long downloadedBytes, long contentLength);
+    }
+
+    private static final String LOGGING_LABEL = "AudioPlayer";
+    private static final String DIRECTORY = "audio_player_downloads";
+
+    static final int STATE_QUEUED = 0;
+    static final int STATE_DOWNLOADING = 1;
+    static final int STATE_COMPLETED = 2;
+    static final int STATE_FAILED = 3;
+    static final int STATE_CANCELED = 4;
+    /**
+     * part of the content is on disk but nothing is downloading it, e.g. after a restart
+     */
+    static final int STATE_INCOMPLETE = 5;
+
+    static final int DEFAULT_MAX_PARALLEL_DOWNLOADS = 2;
+    static final long PROGRESS_INTERVAL = 500;
+
+    /**
+     * a {@link SimpleCache} locks its directory, so there must be only one per process
+     */
+    private static SimpleCache cache;
+
+    private static class Download {
+        final String url;
+        final String key;
+        final AtomicBoolean canceled = new AtomicBoolean();
+        final CacheUtil.CachingCounters counters = new CacheUtil.CachingCounters();
+        volatile int state = STATE_QUEUED;
+        Future<?> future;
+        // playback thread only
+        int reportedState = -1;
+        long reportedBytes = -1;
+
+        Download(String url, String key) {
+            this.url = url;
+            this.key = key;
+        }
+    }
+
+    private final Handler handler;
+    private final Listener listener;
+    private final ThreadPoolExecutor executor;
+    /**
+     * downloads of this process by cache key
+     */
+    private final Map<String, Download> downloads = new ConcurrentHashMap<>();
+    private boolean progressScheduled = false;
+    private final Runnable progressRunnable = this::reportProgress;
+
+    DownloadQueue(Context context, Handler handler, Listener listener) {
+        this.handler = handler;
+        this.listener = listener;
+        synchronized (DownloadQueue.class) {
+            if (cache == null) {
+                cache = new SimpleCache(new File(context.getFilesDir(), DIRECTORY), new NoOpCacheEvictor());
+            }
+        }
+        executor = new ThreadPoolExecutor(DEFAULT_MAX_PARALLEL_DOWNLOADS, DEFAULT_MAX_PARALLEL_DOWNLOADS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return the key {@code url} is downloaded under, without the default signing query parameters. It does not depend on
+     * the cache options, so downloads are found again after they change.
+     */
+    static String buildKey(String url) {
+        return MediaCache.buildDefaultCacheKey(Uri.parse(url));
+    }
+
+    /**
+     * @return whether anything was ever downloaded, so playback can skip opening the download cache otherwise
+     */
+    static boolean exists(Context context) {
+        return new File(context.getFilesDir(), DIRECTORY).exists();
+    }
+
+    void setMaxParallelDownloads(int max) {
+        // the queue is unbounded, so the core size is the parallelism, and it must never exceed the maximum size
+        if (max > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(max);
+            executor.setCorePoolSize(max);
+        } else {
+            executor.setCorePoolSize(max);
+            executor.setMaximumPoolSize(max);
+        }
+    }
+
+    /**
+     * @return false if {@code key} is already queued or downloading
+     */
+    boolean download(String url, String key, DataSource upstream) {
+        Download existing = downloads.get(key);
+        if (existing != null && (existing.state == STATE_QUEUED || existing.state == STATE_DOWNLOADING)) {
+            return false;
+        }
+        Download download = new Download(url, key);
+        downloads.put(key, download);
+        download.future = executor.submit(() -> run(download, upstream));
+        scheduleProgress();
+        return true;
+    }
+
+    void cancel(String key) {
+        Download download = downloads.get(key);
+        if (download == null) {
+            return;
+        }
+        download.canceled.set(true);
+        download.future.cancel(false);
+        if (download.state == STATE_QUEUED) {
+            download.state = STATE_CANCELED;
+        }
+        scheduleProgress();
+    }
+
+    /**
+     * Cancels the download of {@code key} and deletes its bytes.
+     */
+    void remove(String key) {
+        cancel(key);
+        downloads.remove(key);
+        CacheUtil.remove(cache, key);
+    }
+
+    boolean contains(String key) {
+        return !cache.getCachedSpans(key).isEmpty();
+    }
+
+    /**
+     * @return reads downloaded bytes from disk and the rest from {@code upstreamFactory}, without writing them to disk
+     */
+    DataSource.Factory createDataSourceFactory(DataSource.Factory upstreamFactory) {
+        return new CacheDataSourceFactory(cache, upstreamFactory, new FileDataSourceFactory(), null,
+                CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR, null);
+    }
+
+    /**
+     * @return {@code url}, {@code state}, {@code downloadedBytes} and {@code contentLength} of every download, downloads of
+     * earlier processes are listed by their cache key
+     */
+    List<Map<String, Object>> getDownloads() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Download download : downloads.values()) {
+            result.add(toMap(download.url, download.state, download.counters.totalCachedBytes(), download.counters.contentLength));
+        }
+        for (String key : cache.getKeys()) {
+            if (!downloads.containsKey(key)) {
+                CacheUtil.CachingCounters counters = new CacheUtil.CachingCounters();
+                CacheUtil.getCached(new DataSpec(Uri.parse(key), 0, C.LENGTH_UNSET, key), cache, counters);
+                boolean complete = counters.contentLength != C.LENGTH_UNSET && counters.alreadyCachedBytes >= counters.contentLength;
+                result.add(toMap(key, complete ? STATE_COMPLETED : STATE_INCOMPLETE, counters.alreadyCachedBytes, counters.contentLength));
+            }
+        }
+        return result;
+    }
+
+    void release() {
+        for (Download download : downloads.values()) {
+            download.canceled.set(true);
+        }
+        executor.shutdownNow();
+        handler.removeCallbacks(progressRunnable);
+        progressScheduled = false;
+    }
+
+    private void run(Download download, DataSource upstream) {
+        if (download.canceled.get()) {
+            download.state = STATE_CANCELED;
+            return;
+        }
+        download.state = STATE_DOWNLOADING;
+        try {
+            CacheUtil.cache(new DataSpec(Uri.parse(download.url), 0, C.LENGTH_UNSET, download.key), cache, upstream,
+                    download.counters, download.canceled);
+            download.state = STATE_COMPLETED;
+        } catch (InterruptedException e) {
+            download.state = STATE_CANCELED;
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (download.canceled.get()) {
+                download.state = STATE_CANCELED;
+            } else {
+                Log.w(LOGGING_LABEL, "failed to download " + download.url, e);
+                download.state = STATE_FAILED;
+            }
+        }
+    }
+
+    private void scheduleProgress() {
+        if (!progressScheduled) {
+            progressScheduled = true;
+            handler.post(progressRunnable);
+        }
+    }
+
+    private void reportProgress() {
+        boolean active = false;
+        for (Download download : downloads.values()) {
+            int state = download.state;
+            long bytes = download.counters.totalCachedBytes();
+            if (state != download.reportedState || bytes != download.reportedBytes) {
+                download.reportedState = state;
+                download.reportedBytes = bytes;
+                listener.onDownloadProgress(download.url, state, bytes, download.counters.contentLength);
+            }
+            if (state == STATE_QUEUED || state == STATE_DOWNLOADING) {
+                active = true;
+            }
+        }
+        progressScheduled = active;
+        if (active) {
+            handler.postDelayed(progressRunnable, PROGRESS_INTERVAL);
+        }
+    }
+
+    private static Map<String, Object> toMap(String url, int state, long downloadedBytes, long contentLength) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("url", url);
+        map.put("state", state);
+        map.put("downloadedBytes", downloadedBytes);
+        map.put("contentLength", contentLength);
+        return map;
+    }
+}
@@ -0,0 +1,188 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Streams player events to Dart in batches over an {@link EventChannel}.
+ * <p>
+ * Events arriving within a frame are sent as one message carrying {@code seq}, the latest {@code position},
+ * {@code buffered} percent and {@code status}, plus the discrete {@code events} in order. Every {@link #ACK_INTERVAL}th
+ * batch carries {@code ack}, Dart acks it once handled and acks are cumulative, so keeping up costs one round trip per
+ * interval. While {@link #MAX_IN_FLIGHT} batches are unacked nothing is sent: position and buffer samples are overwritten
+ * in the meantime, discrete events are kept. While nobody listens discrete events are dropped, only the latest status and samples are kept.
+ * <p>
+ * Events are handed over from the service's playback thread under the batcher's lock, batches are sent on the main thread.
+ */
+class EventBatcher implements EventChannel.StreamHandler {
+    static final long FRAME_MILLIS = 16;
+    /**
+     * about two seconds of frames, twice the ack interval so the ack of the previous interval can arrive before the window
+     * is full
+     */
+    static final int MAX_IN_FLIGHT = 128;
+    static final int ACK_INTERVAL = MAX_IN_FLIGHT / 2;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private EventChannel.EventSink sink;
+    private boolean scheduled = false;
+    private long seq = 0;
+    private long ackedSeq = 0;
+
+    private int status = MediaPlayerService.PLAYER_STATUS_INITIAL;
+    private long position = -1;
+    private boolean positionDirty = false;
+    private int buffered = -1;
+    private boolean bufferedDirty = false;
+    private final List<Map<String, Object>> events = new ArrayList<>();
+    private final Map<String, Object> batch = new HashMap<>();
+
+    private long received = 0;
+    private long batches = 0;
+    private long droppedSamples = 0;
+    private long droppedEvents = 0;
+    private long flushNanos = 0;
+
+    private final Runnable flushRunnable = this::flush;
+
+    synchronized void onStatus(int status, String method, Object args) {
+        this.status = status;
+        onEvent(method, args);
+    }
+
+    synchronized void onEvent(String method, Object args) {
+        onEvent(method, args, 0);
+    }
+
+    /**
+     * @param playerId tagged on the event unless it is player 0
+     */
+    synchronized void onEvent(String method, Object args, int playerId) {
+        received++;
+        if (sink == null) {
+            droppedEvents++;
+            return;
+        }
+        Map<String, Object> event = new HashMap<>();
+        event.put("method", method);
+        event.put("args", args);
+        if (playerId != 0) {
+            event.put("playerId", playerId);
+        }
+        events.add(event);
+        schedule();
+    }
+
+    synchronized void onPosition(long position) {
+        received++;
+        if (positionDirty) {
+            droppedSamples++;
+        }
+        this.position = position;
+        positionDirty = true;
+        schedule();
+    }
+
+    synchronized void onBuffer(int percent) {
+        received++;
+        if (bufferedDirty) {
+            droppedSamples++;
+        }
+        this.buffered = percent;
+        bufferedDirty = true;
+        schedule();
+    }
+
+    /**
+     * @param seq sequence number of the batch Dart has finished handling
+     */
+    synchronized void ack(long seq) {
+        if (seq > ackedSeq) {
+            ackedSeq = seq;
+            schedule();
+        }
+    }
+
+    /**
+     * @return {@code received} listener events, {@code batches} sent, {@code droppedSamples} overwritten before being sent,
+     * {@code droppedEvents} while nobody listened and {@code flushMicros} spent building and sending batches on the main thread
+     */
+    synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("received", received);
+        stats.put("batches", batches);
+        stats.put("droppedSamples", droppedSamples);
+        stats.put("droppedEvents", droppedEvents);
+        stats.put("flushMicros", flushNanos / 1000);
+        return stats;
+    }
+
+    @Override
+    public synchronized void onListen(Object arguments, EventChannel.EventSink sink) {
+        this.sink = sink;
+        ackedSeq = seq;
+        schedule();
+    }
+
+    @Override
+    public synchronized void onCancel(Object arguments) {
+        sink = null;
+        handler.removeCallbacks(flushRunnable);
+        scheduled = false;
+        droppedEvents += events.size();
+        events.clear();
+    }
+
+    private boolean isDirty() {
+        return positionDirty || bufferedDirty || !events.isEmpty();
+    }
+
+    private void schedule() {
+        if (sink == null || scheduled || seq - ackedSeq >= MAX_IN_FLIGHT || !isDirty()) {
+            return;
+        }
+        scheduled = true;
+        handler.postDelayed(flushRunnable, FRAME_MILLIS);
+    }
+
+    /**
+     * Sends the pending batch, on the main thread.
+     */
+    synchronized void flush() {
+        scheduled = false;
+        if (sink == null || seq - ackedSeq >= MAX_IN_FLIGHT || !isDirty()) {
+            return;
+        }
+        long startedAt = SystemClock.elapsedRealtimeNanos();
+        batch.clear();
+        batch.put("seq", ++seq);
+        if (seq % ACK_INTERVAL == 0) {
+            batch.put("ack", true);
+        }
+        batch.put("status", status);
+        if (positionDirty) {
+            batch.put("position", position);
+        }
+        if (bufferedDirty) {
+            batch.put("buffered", buffered);
+        }
+        if (!events.isEmpty()) {
+            batch.put("events", events);
+        }
+        // the codec encodes the batch synchronously, so its containers can be reused
+        sink.success(batch);
+        events.clear();
+        positionDirty = false;
+        bufferedDirty = false;
+        batches++;
+        flushNanos += SystemClock.elapsedRealtimeNanos() - startedAt;
+    }
+}
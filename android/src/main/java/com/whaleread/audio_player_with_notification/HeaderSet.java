@@ -0,0 +1,87 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.text.TextUtils;
+
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable, interned set of request headers.
+ * <p>
+ * Equal header maps resolve to the same instance, so repeated plays with the same auth headers hit the {@link HttpStack}
+ * factory cache by identity and reuse its request properties.
+ */
+final class HeaderSet {
+    private static final int MAX_INTERNED = 64;
+    private static final Map<HeaderSet, HeaderSet> INTERNED = new HashMap<>();
+
+    static final HeaderSet EMPTY = new HeaderSet(Collections.emptyMap());
+
+    private final Map<String, String> headers;
+    private final int hash;
+
+    private HeaderSet(Map<String, String> headers) {
+        this.headers = headers;
+        this.hash = headers.hashCode();
+    }
+
+    /**
+     * @param raw header map from the method channel, entries with empty values are dropped
+     */
+    static HeaderSet of(@Nullable Map<String, String> raw) {
+        if (raw == null || raw.isEmpty()) {
+            return EMPTY;
+        }
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : raw.entrySet()) {
+            if (!TextUtils.isEmpty(entry.getValue())) {
+                headers.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (headers.isEmpty()) {
+            return EMPTY;
+        }
+        HeaderSet candidate = new HeaderSet(Collections.unmodifiableMap(headers));
+        synchronized (INTERNED) {
+            HeaderSet interned = INTERNED.get(candidate);
+            if (interned != null) {
+                return interned;
+            }
+            if (INTERNED.size() >= MAX_INTERNED) {
+                INTERNED.clear();
+            }
+            INTERNED.put(candidate, candidate);
+        }
+        return candidate;
+    }
+
+    Map<String, String> asMap() {
+        return headers;
+    }
+
+    String getUserAgent(String defaultUserAgent) {
+        String userAgent = headers.get("User-Agent");
+        return userAgent == null ? defaultUserAgent : userAgent;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof HeaderSet)) {
+            return false;
+        }
+        HeaderSet other = (HeaderSet) o;
+        return hash == other.hash && headers.equals(other.headers);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
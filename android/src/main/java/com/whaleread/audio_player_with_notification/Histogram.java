@@ -0,0 +1,69 @@
+package com.whaleread.audio_player_with_notification;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size, lock-free histogram with power-of-two buckets.
+ * <p>
+ * Bucket {@code b} counts values in {@code [2^(b-1), 2^b)}, bucket 0 counts zero. Recording is a few atomic increments and
+ * never allocates, so it is safe from loader threads. Percentiles resolve to the upper bound of their bucket.
+ */
+class Histogram {
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long value) {
+        if (value < 0) {
+            return;
+        }
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry until max is at least value
+        }
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @param fraction e.g. 0.95 for p95
+     */
+    long percentile(double fraction) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += buckets.get(bucket);
+            if (seen >= rank) {
+                return bucket == 0 ? 0 : Math.min((1L << bucket) - 1, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new HashMap<>();
+        long total = count.get();
+        snapshot.put("count", total);
+        snapshot.put("mean", total == 0 ? 0 : sum.get() / total);
+        snapshot.put("p50", percentile(0.5));
+        snapshot.put("p95", percentile(0.95));
+        snapshot.put("max", max.get());
+        return snapshot;
+    }
+}
@@ -0,0 +1,221 @@
+package com.whaleread.audio_player_with_notification;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.ext.okhttp.OkHttpDataSourceFactory;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+
+/**
+ * Service-lifetime http stack shared by every track.
+ * <p>
+ * The OkHttp client pools keep-alive connections per host and negotiates HTTP/2 where the server offers it, so track changes
+ * on the same CDN skip the handshake. Data source factories are cached per header set instead of being rebuilt on each play.
+ */
+class HttpStack implements TransferListener {
+    private static final int MAX_CACHED_FACTORIES = 8;
+
+    private final boolean useOkHttp;
+    private final String defaultUserAgent;
+    private final OkHttpClient client;
+    private final PlaybackMetrics metrics;
+    private final Map<HeaderSet, HttpDataSource.Factory> factories = new LinkedHashMap<HeaderSet, HttpDataSource.Factory>(MAX_CACHED_FACTORIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<HeaderSet, HttpDataSource.Factory> eldest) {
+            return size() > MAX_CACHED_FACTORIES;
+        }
+    };
+    @Nullable
+    private TransferListener transferListener;
+
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong connectionsReused = new AtomicLong();
+    private final AtomicLong connectNanos = new AtomicLong();
+    /**
+     * connections held by calls, they are only returned to the pool when their response body is closed
+     */
+    private final AtomicInteger connectionsInUse = new AtomicInteger();
+    private volatile boolean released = false;
+
+    /**
+     * @param useOkHttp use the pooled OkHttp client, otherwise fall back to {@link DefaultHttpDataSourceFactory}
+     * @param defaultUserAgent user agent of requests without a User-Agent header
+     * @param metrics receives dns, connect and first byte timings and network transfers
+     */
+    HttpStack(boolean useOkHttp, String defaultUserAgent, PlaybackMetrics metrics) {
+        this.useOkHttp = useOkHttp;
+        this.defaultUserAgent = defaultUserAgent;
+        this.metrics = metrics;
+        this.client = useOkHttp ? new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(5, 5, TimeUnit.MINUTES))
+                .eventListenerFactory(call -> new ConnectionTimingListener())
+                .build() : null;
+    }
+
+    /**
+     * @param transferListener receives the transfer events of every data source created by this stack
+     */
+    void setTransferListener(@Nullable TransferListener transferListener) {
+        this.transferListener = transferListener;
+    }
+
+    boolean isUsingOkHttp() {
+        return useOkHttp;
+    }
+
+    HttpDataSource.Factory getFactory(HeaderSet headers) {
+        HttpDataSource.Factory factory = factories.get(headers);
+        if (factory == null) {
+            String userAgent = headers.getUserAgent(defaultUserAgent);
+            if (useOkHttp) {
+                factory = new OkHttpDataSourceFactory(client, userAgent, this);
+            } else {
+                factory = new DefaultHttpDataSourceFactory(userAgent, this);
+            }
+            factory.getDefaultRequestProperties().set(headers.asMap());
+            factories.put(headers, factory);
+        }
+        return factory;
+    }
+
+    /**
+     * Stops the dispatcher threads and closes the pooled connections, those still in use as soon as their loads let go of
+     * them. Data sources already created keep working, their new connections are closed in turn when released.
+     */
+    void release() {
+        released = true;
+        if (client != null) {
+            client.dispatcher().executorService().shutdown();
+            evictIfIdle();
+        }
+    }
+
+    private void evictIfIdle() {
+        if (connectionsInUse.get() == 0) {
+            client.connectionPool().evictAll();
+        }
+    }
+
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("connectionsOpened", connectionsOpened.get());
+        stats.put("connectionsReused", connectionsReused.get());
+        stats.put("connectMillis", TimeUnit.NANOSECONDS.toMillis(connectNanos.get()));
+        return stats;
+    }
+
+    @Override
+    public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        TransferListener listener = transferListener;
+        if (listener != null) {
+            listener.onTransferInitializing(source, dataSpec, isNetwork);
+        }
+    }
+
+    @Override
+    public void onTransferStart(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        if (isNetwork) {
+            metrics.onTransferStart(source);
+        }
+        TransferListener listener = transferListener;
+        if (listener != null) {
+            listener.onTransferStart(source, dataSpec, isNetwork);
+        }
+    }
+
+    @Override
+    public void onBytesTransferred(DataSource source, DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
+        if (isNetwork) {
+            metrics.onBytesTransferred(source, bytesTransferred);
+        }
+        TransferListener listener = transferListener;
+        if (listener != null) {
+            listener.onBytesTransferred(source, dataSpec, isNetwork, bytesTransferred);
+        }
+    }
+
+    @Override
+    public void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        if (isNetwork) {
+            metrics.onTransferEnd(source);
+        }
+        TransferListener listener = transferListener;
+        if (listener != null) {
+            listener.onTransferEnd(source, dataSpec, isNetwork);
+        }
+    }
+
+    /**
+     * Tells connection setup apart from pooled connection reuse for each call, and times its dns, connect and first byte.
+     */
+    private class ConnectionTimingListener extends EventListener {
+        private long dnsStartNanos;
+        private long connectStartNanos = -1;
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStartNanos = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            metrics.onDns(System.nanoTime() - dnsStartNanos);
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connectStartNanos = System.nanoTime();
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, @Nullable Protocol protocol) {
+            long nanos = System.nanoTime() - connectStartNanos;
+            connectionsOpened.incrementAndGet();
+            connectNanos.addAndGet(nanos);
+            metrics.onConnect(nanos);
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            connectionsInUse.incrementAndGet();
+            if (connectStartNanos == -1) {
+                connectionsReused.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void connectionReleased(Call call, Connection connection) {
+            // the connection is idle in the pool by now
+            if (connectionsInUse.decrementAndGet() == 0 && released) {
+                evictIfIdle();
+            }
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, Response response) {
+            metrics.onResponseHeaders();
+        }
+    }
+}
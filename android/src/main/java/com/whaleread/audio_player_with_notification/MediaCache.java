@@ -0,0 +1,241 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.FileDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSink;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheUtil;
+import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * On-disk LRU cache wrapped around the http data source, with hit/miss counters.
+ * <p>
+ * Network bytes are counted as misses through {@link TransferListener}, bytes served from disk are counted as hits through
+ * {@link CacheDataSource.EventListener}, and also reported per key to the {@link HitListener}.
+ */
+class MediaCache implements TransferListener, CacheDataSource.EventListener {
+    interface HitListener {
+        /**
+         * Called on loader threads as a read of {@code key} is closed.
+         *
+         * @param position where the read started
+         * @param bytes bytes of the read served from disk
+         */
+        void onCacheHit(String key, long position, long bytes);
+    }
+
+    private static final String LOGGING_LABEL = "AudioPlayer";
+    static final long DEFAULT_MAX_BYTES = 100 * 1024 * 1024;
+    /**
+     * query parameters of signed CDN urls, they change between requests for the same content
+     */
+    static final List<String> DEFAULT_IGNORED_QUERY_PARAMS = Arrays.asList("token", "expires", "signature", "sig", "sign", "auth_key",
+            "key-pair-id", "policy", "x-amz-algorithm", "x-amz-credential", "x-amz-date", "x-amz-expires", "x-amz-signature",
+            "x-amz-security-token", "x-amz-signedheaders");
+    private static final Set<String> DEFAULT_IGNORED_QUERY_PARAM_SET = new HashSet<>(DEFAULT_IGNORED_QUERY_PARAMS);
+
+    /**
+     * a {@link SimpleCache} locks its directory, so there must be only one per process
+     */
+    private static SimpleCache cache;
+
+    private final Set<String> ignoredQueryParams = new HashSet<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong hitBytes = new AtomicLong();
+    private final AtomicLong missBytes = new AtomicLong();
+    @Nullable
+    private volatile HitListener hitListener;
+
+    MediaCache(Context context, long maxBytes, List<String> ignoredQueryParams) {
+        setIgnoredQueryParams(ignoredQueryParams);
+        synchronized (MediaCache.class) {
+            if (cache == null) {
+                cache = new SimpleCache(new File(context.getCacheDir(), "audio_player_cache"), new LeastRecentlyUsedCacheEvictor(maxBytes));
+            } else {
+                Log.w(LOGGING_LABEL, "media cache already created, the new size budget applies after restart");
+            }
+        }
+    }
+
+    void setIgnoredQueryParams(List<String> ignoredQueryParams) {
+        this.ignoredQueryParams.clear();
+        for (String param : ignoredQueryParams == null ? DEFAULT_IGNORED_QUERY_PARAMS : ignoredQueryParams) {
+            this.ignoredQueryParams.add(param.toLowerCase(Locale.US));
+        }
+    }
+
+    void setHitListener(@Nullable HitListener hitListener) {
+        this.hitListener = hitListener;
+    }
+
+    DataSource.Factory createDataSourceFactory(DataSource.Factory upstreamFactory) {
+        return () -> new KeyedCacheDataSource(upstreamFactory.createDataSource());
+    }
+
+    /**
+     * @return the url without volatile query parameters, so re-signed urls of the same content share cached bytes
+     */
+    String buildCacheKey(Uri uri) {
+        return buildCacheKey(uri, ignoredQueryParams);
+    }
+
+    /**
+     * @return the cache key with the default ignored query parameters, for use while the cache is disabled
+     */
+    static String buildDefaultCacheKey(Uri uri) {
+        return buildCacheKey(uri, DEFAULT_IGNORED_QUERY_PARAM_SET);
+    }
+
+    /**
+     * @param ignoredQueryParams lower case names of the query parameters to drop, "*" drops the whole query
+     */
+    static String buildCacheKey(Uri uri, Set<String> ignoredQueryParams) {
+        if (uri.getQuery() == null) {
+            return uri.toString();
+        }
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : uri.getQueryParameterNames()) {
+            if (ignoredQueryParams.contains("*") || ignoredQueryParams.contains(name.toLowerCase(Locale.US))) {
+                continue;
+            }
+            for (String value : uri.getQueryParameters(name)) {
+                builder.appendQueryParameter(name, value);
+            }
+        }
+        return builder.build().toString();
+    }
+
+    Cache getCache() {
+        return cache;
+    }
+
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("bytesSaved", hitBytes.get());
+        stats.put("bytesDownloaded", missBytes.get());
+        stats.put("cacheSize", cache.getCacheSpace());
+        return stats;
+    }
+
+    @Override
+    public void onCachedBytesRead(long cacheSizeBytes, long cachedBytesRead) {
+        if (cachedBytesRead > 0) {
+            hits.incrementAndGet();
+            hitBytes.addAndGet(cachedBytesRead);
+        }
+    }
+
+    @Override
+    public void onCacheIgnored(int reason) {
+    }
+
+    @Override
+    public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+    }
+
+    @Override
+    public void onTransferStart(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        if (isNetwork) {
+            misses.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void onBytesTransferred(DataSource source, DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
+        if (isNetwork) {
+            missBytes.addAndGet(bytesTransferred);
+        }
+    }
+
+    @Override
+    public void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+    }
+
+    /**
+     * Cache data source that remembers the key and start of the read it serves, which its event listener is not told.
+     */
+    private class KeyedCacheDataSource implements DataSource, CacheDataSource.EventListener {
+        private final CacheDataSource source;
+        @Nullable
+        private String key;
+        private long position;
+
+        KeyedCacheDataSource(DataSource upstream) {
+            source = new CacheDataSource(cache, upstream, new FileDataSource(),
+                    new CacheDataSink(cache, CacheDataSource.DEFAULT_MAX_CACHE_FILE_SIZE), CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR,
+                    this);
+        }
+
+        @Override
+        public void addTransferListener(TransferListener transferListener) {
+            source.addTransferListener(transferListener);
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            key = CacheUtil.getKey(dataSpec);
+            position = dataSpec.position;
+            return source.open(dataSpec);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            return source.read(buffer, offset, readLength);
+        }
+
+        @Nullable
+        @Override
+        public Uri getUri() {
+            return source.getUri();
+        }
+
+        @Override
+        public Map<String, List<String>> getResponseHeaders() {
+            return source.getResponseHeaders();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the hits of the read are reported as it is closed
+            source.close();
+            key = null;
+        }
+
+        @Override
+        public void onCachedBytesRead(long cacheSizeBytes, long cachedBytesRead) {
+            MediaCache.this.onCachedBytesRead(cacheSizeBytes, cachedBytesRead);
+            HitListener listener = hitListener;
+            if (listener != null && key != null && cachedBytesRead > 0) {
+                listener.onCacheHit(key, position, cachedBytesRead);
+            }
+        }
+
+        @Override
+        public void onCacheIgnored(int reason) {
+        }
+    }
+}
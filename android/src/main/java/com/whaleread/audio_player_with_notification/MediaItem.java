@@ -0,0 +1,26 @@
+package com.whaleread.audio_player_with_notification;
+
+import androidx.annotation.Nullable;
+
+/**
+ * One entry of the playback queue.
+ */
+class MediaItem {
+    final String url;
+    final HeaderSet headers;
+    /**
+     * container name, extension or MIME type picking the extractor, see {@link AudioExtractorsFactory#of}
+     */
+    @Nullable
+    final String containerHint;
+
+    MediaItem(String url, HeaderSet headers) {
+        this(url, headers, null);
+    }
+
+    MediaItem(String url, HeaderSet headers, @Nullable String containerHint) {
+        this.url = url;
+        this.headers = headers;
+        this.containerHint = containerHint;
+    }
+}
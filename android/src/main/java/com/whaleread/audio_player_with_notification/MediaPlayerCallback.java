@@ -0,0 +1,36 @@
+package com.whaleread.audio_player_with_notification;
+
+import java.util.Map;
+
+/**
+ * Events sent from {@link MediaPlayerService} to the bound {@link MediaPlayerDelegate}.
+ */
+public interface MediaPlayerCallback {
+    void onStatus(int status, String message);
+
+    void onDuration(long duration);
+
+    void onPosition(long position);
+
+    void onBuffer(int percent);
+
+    void onResumeLatency(long latency, boolean warm);
+
+    void onTrackIndexChanged(int index);
+
+    void onPrefetchUsed(String url, long prefetchedBytes, long usedBytes);
+
+    void onMetrics(Map<String, Object> metrics);
+
+    void onDownloadProgress(String url, int state, long downloadedBytes, long contentLength);
+
+    void onBitrateChanged(int bitrate, String url, String reason);
+
+    void onSleepTimerFired();
+
+    void onCue(int id, long position);
+
+    void onSpeedChanged(float speed, float pitch);
+
+    void onPlayerEvent(int playerId, String method, Object args);
+}
@@ -1,12 +1,17 @@
 package com.whaleread.audio_player_with_notification;
 
-import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
+import android.content.ServiceConnection;
+import android.os.IBinder;
 import androidx.annotation.Nullable;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 public class MediaPlayerDelegate {
     private Context context;
     private MediaPlayerListener listener;
@@ -14,7 +19,16 @@ public class MediaPlayerDelegate {
     private boolean enableLogging = false;
     private static final String LOGGING_LABEL = "AudioPlayer";
 
-    private int currentPlayerStatus = MediaPlayerService.PLAYER_STATUS_INITIAL;
+    /**
+     * written on the service's playback thread
+     */
+    private volatile int currentPlayerStatus = MediaPlayerService.PLAYER_STATUS_INITIAL;
+
+    private MediaPlayerService service;
+    /**
+     * commands issued before the service is bound, replayed in order once it is connected
+     */
+    private final List<Runnable> pendingCommands = new ArrayList<>();
 
     /**
      * @param context {@link Context}
@@ -23,7 +37,7 @@ public class MediaPlayerDelegate {
         this.context = context;
     }
 
-    public void createPlayer(Boolean audioFocus, Integer positionNotifyInterval, Boolean enableLogging, String notificationName) {
+    public void createPlayer(Boolean audioFocus, Integer positionNotifyInterval, Boolean enableLogging, String notificationName, Boolean warmPause, Integer warmPauseTimeout) {
         if(initialized) {
             return;
         }
@@ -41,17 +55,28 @@ public class MediaPlayerDelegate {
         if(notificationName != null) {
             intent.putExtra(MediaPlayerService.NOTIFICATION_NAME_KEY, notificationName);
         }
+        if(warmPause != null) {
+            intent.putExtra(MediaPlayerService.WARM_PAUSE_KEY, warmPause);
+        }
+        if(warmPauseTimeout != null) {
+            intent.putExtra(MediaPlayerService.WARM_PAUSE_TIMEOUT_KEY, warmPauseTimeout);
+        }
         if(this.enableLogging) {
             Log.i(LOGGING_LABEL, "createPlayer");
         }
         context.startService(intent);
-        context.registerReceiver(receiverFromService, new IntentFilter(MediaPlayerService.SERVICE_TO_BROADCAST));
+        context.bindService(new Intent(context, MediaPlayerService.class), connection, Context.BIND_AUTO_CREATE);
         initialized = true;
     }
 
     public void destroyPlayer() {
         if(initialized) {
-            context.unregisterReceiver(receiverFromService);
+            if(service != null) {
+                service.execute(s -> s.setCallback(null));
+                service = null;
+            }
+            pendingCommands.clear();
+            context.unbindService(connection);
             context.stopService(new Intent(context, MediaPlayerService.class));
             this.initialized = false;
             this.currentPlayerStatus = MediaPlayerService.PLAYER_STATUS_INITIAL;
@@ -65,80 +90,277 @@ public class MediaPlayerDelegate {
         this.listener = listener;
     }
 
-    public void play(@Nullable String url, float volume, int position, @Nullable String headers) {
+    /**
+     * @param containerHint container name, extension or MIME type of {@code url}, lets the player sniff it with that container's extractor only
+     */
+    public void play(@Nullable String url, float volume, int position, HeaderSet headers, @Nullable String containerHint) {
         if(!initialized) {
-            createPlayer(null, null, null, null);
+            createPlayer(null, null, null, null, null, null);
         }
-        if (currentPlayerStatus != MediaPlayerService.PLAYER_STATUS_PLAYING && currentPlayerStatus != MediaPlayerService.PLAYER_STATUS_PAUSED) {
-            startMediaPlayer(url, volume, position, headers);
-            return;
+        // the service picks between starting and toggling, its status is never stale
+        if (service != null) {
+            service.getCommandQueue().submitPlay(url, volume, position, headers, containerHint);
+        } else {
+            pendingCommands.add(() -> play(url, volume, position, headers, containerHint));
+        }
+    }
+
+    /**
+     * Plays one item published at several bitrates, switching between them as bandwidth allows.
+     *
+     * @param bitrates bits per second of {@code urls}
+     */
+    public void playLadder(List<String> urls, List<Integer> bitrates, float volume, int position, HeaderSet headers, @Nullable String containerHint) {
+        if(!initialized) {
+            createPlayer(null, null, null, null, null, null);
+        }
+        if (service != null) {
+            service.execute(s -> s.playLadder(urls, bitrates, volume, position, headers, containerHint));
+        } else {
+            pendingCommands.add(() -> playLadder(urls, bitrates, volume, position, headers, containerHint));
+        }
+    }
+
+    /**
+     * @param millis     pauses after this long, 0 for no duration
+     * @param endOfTrack pauses at the end of the current track, whichever comes first
+     * @param fadeMillis fades out over this long before pausing
+     */
+    public void setSleepTimer(long millis, boolean endOfTrack, long fadeMillis) {
+        if (service != null) {
+            service.execute(s -> s.setSleepTimer(millis, endOfTrack, fadeMillis));
+        } else {
+            pendingCommands.add(() -> setSleepTimer(millis, endOfTrack, fadeMillis));
+        }
+    }
+
+    public void cancelSleepTimer() {
+        if (service != null) {
+            service.execute(MediaPlayerService::cancelSleepTimer);
+        } else {
+            pendingCommands.add(this::cancelSleepTimer);
+        }
+    }
+
+    /**
+     * @param positions cue points of the current track in ms, reported by their index as playback crosses them
+     */
+    public void setCuePoints(long[] positions) {
+        if (service != null) {
+            service.execute(s -> s.setCuePoints(positions));
+        } else {
+            pendingCommands.add(() -> setCuePoints(positions));
         }
-        if (currentPlayerStatus == MediaPlayerService.PLAYER_STATUS_PLAYING) {
-            Intent intent = new Intent();
-            intent.setAction(MediaPlayerService.BROADCAST_TO_SERVICE);
-            intent.putExtra(MediaPlayerService.PLAYER_FUNCTION_TYPE, MediaPlayerService.PAUSE_MEDIA_PLAYER);
-            context.sendBroadcast(intent);
+    }
+
+    /**
+     * @param speed 1 is normal speed
+     * @param pitch 1 keeps the pitch whatever the speed
+     */
+    public void setSpeed(float speed, float pitch) {
+        if (service != null) {
+            service.execute(s -> s.setSpeed(speed, pitch));
+        } else {
+            pendingCommands.add(() -> setSpeed(speed, pitch));
+        }
+    }
+
+    /**
+     * Calls {@code ack} on the service's playback thread once the commands issued so far are applied, right away if the
+     * player is not created.
+     */
+    public void whenApplied(CommandQueue.Ack ack) {
+        if (!initialized) {
+            ack.onApplied(0, currentPlayerStatus);
+        } else if (service != null) {
+            service.getCommandQueue().whenApplied(ack);
         } else {
-            Intent intent = new Intent();
-            intent.setAction(MediaPlayerService.BROADCAST_TO_SERVICE);
-            intent.putExtra(MediaPlayerService.PLAYER_FUNCTION_TYPE, MediaPlayerService.RESUME_MEDIA_PLAYER);
-            context.sendBroadcast(intent);
+            pendingCommands.add(() -> whenApplied(ack));
         }
     }
 
     public void pause() {
-        Intent intent = new Intent();
-        intent.setAction(MediaPlayerService.BROADCAST_TO_SERVICE);
-        intent.putExtra(MediaPlayerService.PLAYER_FUNCTION_TYPE, MediaPlayerService.PAUSE_MEDIA_PLAYER);
-        context.sendBroadcast(intent);
+        if (service != null) {
+            service.getCommandQueue().submit(CommandQueue.TYPE_PAUSE, MediaPlayerService::pausePlayer);
+        } else {
+            pendingCommands.add(this::pause);
+        }
     }
 
     public void resume() {
-        Intent intent = new Intent();
-        intent.setAction(MediaPlayerService.BROADCAST_TO_SERVICE);
-        intent.putExtra(MediaPlayerService.PLAYER_FUNCTION_TYPE, MediaPlayerService.RESUME_MEDIA_PLAYER);
-        context.sendBroadcast(intent);
+        if (service != null) {
+            service.getCommandQueue().submit(CommandQueue.TYPE_RESUME, MediaPlayerService::resumePlayer);
+        } else {
+            pendingCommands.add(this::resume);
+        }
     }
 
     public void stop() {
-        Intent intent = new Intent();
-        intent.setAction(MediaPlayerService.BROADCAST_TO_SERVICE);
-        intent.putExtra(MediaPlayerService.PLAYER_FUNCTION_TYPE, MediaPlayerService.STOP_MEDIA_PLAYER);
-        context.sendBroadcast(intent);
+        if (service != null) {
+            service.execute(MediaPlayerService::stopPlayer);
+        } else {
+            pendingCommands.add(this::stop);
+        }
     }
 
     public void setVolume(float volume) {
-        Intent intent = new Intent();
-        intent.setAction(MediaPlayerService.BROADCAST_TO_SERVICE);
-        intent.putExtra(MediaPlayerService.PLAYER_FUNCTION_TYPE, MediaPlayerService.SET_VOLUME);
-        intent.putExtra(MediaPlayerService.PLAYER_VOLUME, volume);
-        context.sendBroadcast(intent);
+        if (service != null) {
+            service.getCommandQueue().submit(CommandQueue.TYPE_VOLUME, s -> s.setVolume(volume));
+        } else {
+            pendingCommands.add(() -> setVolume(volume));
+        }
     }
 
-    public void seekTo(int position) {
-        Intent intent = new Intent();
-        intent.setAction(MediaPlayerService.BROADCAST_TO_SERVICE);
-        intent.putExtra(MediaPlayerService.PLAYER_FUNCTION_TYPE, MediaPlayerService.SEEK_TO);
-        intent.putExtra(MediaPlayerService.PLAYER_POSITION, position);
-        context.sendBroadcast(intent);
+    /**
+     * @param dragging whether the user is still dragging the scrubber, see {@link MediaPlayerService#seekTo(int, boolean)}
+     */
+    public void seekTo(int position, boolean dragging) {
+        if (service != null) {
+            service.execute(s -> s.seekTo(position, dragging));
+        } else {
+            pendingCommands.add(() -> seekTo(position, dragging));
+        }
+    }
+
+    public void setUrl(String url, HeaderSet headers) {
+        if (service != null) {
+            service.getCommandQueue().submitSetUrl(url, headers);
+        } else {
+            pendingCommands.add(() -> setUrl(url, headers));
+        }
     }
 
-    public void setUrl(String url, String headers) {
-        Intent intent = new Intent();
-        intent.setAction(MediaPlayerService.BROADCAST_TO_SERVICE);
-        intent.putExtra(MediaPlayerService.PLAYER_FUNCTION_TYPE, MediaPlayerService.CHANGE_PLAYER_TRACK);
-        intent.putExtra(MediaPlayerService.PLAYER_TRACK_URL, url);
-        intent.putExtra(MediaPlayerService.PLAYER_HEADERS, headers);
-        context.sendBroadcast(intent);
+    /**
+     *
+     * @param urls queue items, played gaplessly one after another
+     * @param headers http headers for each item, may be null
+     * @param startIndex index of the item to start with
+     */
+    public void setQueue(List<String> urls, @Nullable List<HeaderSet> headers, int startIndex) {
+        if(!initialized) {
+            createPlayer(null, null, null, null, null, null);
+        }
+        if (service != null) {
+            service.execute(s -> s.setQueue(urls, headers, startIndex));
+        } else {
+            pendingCommands.add(() -> setQueue(urls, headers, startIndex));
+        }
+    }
+
+    public void enqueue(String url, HeaderSet headers) {
+        if (service != null) {
+            service.execute(s -> s.enqueue(url, headers));
+        } else {
+            pendingCommands.add(() -> enqueue(url, headers));
+        }
+    }
+
+    public void skipNext() {
+        if (service != null) {
+            service.execute(MediaPlayerService::skipNext);
+        } else {
+            pendingCommands.add(this::skipNext);
+        }
+    }
+
+    public void skipPrevious() {
+        if (service != null) {
+            service.execute(MediaPlayerService::skipPrevious);
+        } else {
+            pendingCommands.add(this::skipPrevious);
+        }
+    }
+
+    public void jumpTo(int index) {
+        if (service != null) {
+            service.execute(s -> s.jumpTo(index));
+        } else {
+            pendingCommands.add(() -> jumpTo(index));
+        }
+    }
+
+    /**
+     * Plays {@code url} on secondary player {@code playerId}, which shares the service's buffers and connections with
+     * player 0 but has no queue or notification.
+     *
+     * @param priority one of the {@code PlayerSession.PRIORITY_} constants, decides its share of the memory budget
+     */
+    public void playSession(int playerId, String url, float volume, int position, HeaderSet headers, @Nullable String containerHint, int priority) {
+        if(!initialized) {
+            createPlayer(null, null, null, null, null, null);
+        }
+        if (service != null) {
+            service.execute(s -> s.playSession(playerId, url, volume, position, headers, containerHint, priority));
+        } else {
+            pendingCommands.add(() -> playSession(playerId, url, volume, position, headers, containerHint, priority));
+        }
+    }
+
+    public void pauseSession(int playerId) {
+        if (service != null) {
+            service.execute(s -> s.pauseSession(playerId));
+        } else {
+            pendingCommands.add(() -> pauseSession(playerId));
+        }
+    }
+
+    public void resumeSession(int playerId) {
+        if (service != null) {
+            service.execute(s -> s.resumeSession(playerId));
+        } else {
+            pendingCommands.add(() -> resumeSession(playerId));
+        }
+    }
+
+    public void stopSession(int playerId) {
+        if (service != null) {
+            service.execute(s -> s.stopSession(playerId));
+        } else {
+            pendingCommands.add(() -> stopSession(playerId));
+        }
+    }
+
+    public void seekSession(int playerId, int position) {
+        if (service != null) {
+            service.execute(s -> s.seekSession(playerId, position));
+        } else {
+            pendingCommands.add(() -> seekSession(playerId, position));
+        }
+    }
+
+    public void setSessionVolume(int playerId, float volume) {
+        if (service != null) {
+            service.execute(s -> s.setSessionVolume(playerId, volume));
+        } else {
+            pendingCommands.add(() -> setSessionVolume(playerId, volume));
+        }
+    }
+
+    public void releaseSession(int playerId) {
+        if (service != null) {
+            service.execute(s -> s.releaseSession(playerId));
+        } else {
+            pendingCommands.add(() -> releaseSession(playerId));
+        }
+    }
+
+    /**
+     * @param bytes buffer memory of all players together, applied to players built afterwards
+     */
+    public void setMemoryBudget(long bytes) {
+        if (service != null) {
+            service.execute(s -> s.setMemoryBudget(bytes));
+        } else {
+            pendingCommands.add(() -> setMemoryBudget(bytes));
+        }
     }
 
     public void updateNotification(String title, String subtitle) {
-        Intent intent = new Intent();
-        intent.setAction(MediaPlayerService.BROADCAST_TO_SERVICE);
-        intent.putExtra(MediaPlayerService.PLAYER_FUNCTION_TYPE, MediaPlayerService.UPDATE_NOTIFICATION);
-        intent.putExtra(MediaPlayerService.NOTIFICATION_TITLE_KEY, title);
-        intent.putExtra(MediaPlayerService.NOTIFICATION_SUBTITLE_KEY, subtitle);
-        context.sendBroadcast(intent);
+        if (service != null) {
+            service.execute(s -> s.updateNotification(title, subtitle));
+        } else {
+            pendingCommands.add(() -> updateNotification(title, subtitle));
+        }
     }
 
     /**
@@ -148,46 +370,204 @@ public class MediaPlayerDelegate {
      * @param backgroundColor notification background color
      */
     public void updateNotificationTheme(String titleColor, String subtitleColor, String backgroundColor) {
-        Intent intent = new Intent();
-        intent.setAction(MediaPlayerService.BROADCAST_TO_SERVICE);
-        intent.putExtra(MediaPlayerService.PLAYER_FUNCTION_TYPE, MediaPlayerService.UPDATE_NOTIFICATION_THEME);
-        intent.putExtra(MediaPlayerService.NOTIFICATION_TITLE_COLOR_KEY, titleColor);
-        intent.putExtra(MediaPlayerService.NOTIFICATION_SUBTITLE_COLOR_KEY, subtitleColor);
-        intent.putExtra(MediaPlayerService.NOTIFICATION_BACKGROUND_COLOR_KEY, backgroundColor);
-        context.sendBroadcast(intent);
+        if (service != null) {
+            service.execute(s -> s.updateNotificationTheme(titleColor, subtitleColor, backgroundColor));
+        } else {
+            pendingCommands.add(() -> updateNotificationTheme(titleColor, subtitleColor, backgroundColor));
+        }
     }
 
     /**
      *
      * @param audioFocus request audio focus before play, default true
      * @param positionNotifyInterval player position notify interval, default 200
+     * @param warmPause keep the player alive on pause, default true
+     * @param warmPauseTimeout release a paused player after this many milliseconds, default 5 minutes
+     * @param bufferingPolicy buffering of the next built player, default balanced
+     * @param audioOnly build the next player with only audio renderers and extractors, default true
      */
-    public void updateOptions(Boolean audioFocus, Integer positionNotifyInterval) {
-        Intent intent = new Intent();
-        intent.setAction(MediaPlayerService.BROADCAST_TO_SERVICE);
-        intent.putExtra(MediaPlayerService.PLAYER_FUNCTION_TYPE, MediaPlayerService.UPDATE_OPTIONS);
-        if(audioFocus != null) {
-            intent.putExtra(MediaPlayerService.AUDIO_FOCUS_KEY, audioFocus);
+    public void updateOptions(Boolean audioFocus, Integer positionNotifyInterval, Boolean warmPause, Integer warmPauseTimeout, BufferingPolicy bufferingPolicy, Boolean audioOnly) {
+        if (service != null) {
+            service.execute(s -> s.updateOptions(audioFocus, positionNotifyInterval, warmPause, warmPauseTimeout, bufferingPolicy, audioOnly));
+        } else {
+            pendingCommands.add(() -> updateOptions(audioFocus, positionNotifyInterval, warmPause, warmPauseTimeout, bufferingPolicy, audioOnly));
         }
-        if(positionNotifyInterval != null) {
-            intent.putExtra(MediaPlayerService.POSITION_NOTIFY_INTERVAL_KEY, positionNotifyInterval);
+    }
+
+    public void setAppInForeground(boolean foreground) {
+        if (service != null) {
+            service.execute(s -> s.setAppInForeground(foreground));
+        } else {
+            pendingCommands.add(() -> setAppInForeground(foreground));
         }
-        context.sendBroadcast(intent);
+    }
+
+    /**
+     * Receives a value read on the service's playback thread.
+     */
+    public interface Reply<T> {
+        /**
+         * Called on the playback thread, or right away with null if the service is not bound yet.
+         */
+        void onReply(@Nullable T value);
+    }
+
+    private interface Query<T> {
+        T read(MediaPlayerService service);
+    }
+
+    /**
+     * Reads on the playback thread after the commands submitted before, which own the state being read.
+     */
+    private <T> void query(Query<T> query, Reply<T> reply) {
+        if (service != null) {
+            service.execute(s -> reply.onReply(query.read(s)));
+        } else {
+            reply.onReply(null);
+        }
+    }
+
+    /**
+     * Replies with time to first audio phases, rebuffers, throughput, seek and rebuild metrics.
+     */
+    public void getMetrics(Reply<Map<String, Object>> reply) {
+        query(MediaPlayerService::getMetrics, reply);
+    }
+
+    /**
+     * @param interval milliseconds between metrics pushed to the listener, 0 stops the push
+     */
+    public void setMetricsInterval(long interval) {
+        if (service != null) {
+            service.execute(s -> s.setMetricsInterval(interval));
+        } else {
+            pendingCommands.add(() -> setMetricsInterval(interval));
+        }
+    }
+
+    public void setPositionListening(boolean listening) {
+        if (service != null) {
+            service.execute(s -> s.setPositionListening(listening));
+        } else {
+            pendingCommands.add(() -> setPositionListening(listening));
+        }
+    }
+
+    /**
+     *
+     * @param enabled cache http sources on disk
+     * @param maxBytes cache size budget, default 100MB
+     * @param ignoredQueryParams query parameters left out of cache keys, defaults to common url signing parameters
+     */
+    public void configureCache(boolean enabled, @Nullable Long maxBytes, @Nullable List<String> ignoredQueryParams) {
+        if (service != null) {
+            service.execute(s -> s.configureCache(enabled, maxBytes, ignoredQueryParams));
+        } else {
+            pendingCommands.add(() -> configureCache(enabled, maxBytes, ignoredQueryParams));
+        }
+    }
+
+    /**
+     * Starts buffering the head of {@code url} into the disk cache, so a following play of it starts instantly.
+     *
+     * @param bytes bytes to prefetch, takes precedence over {@code millis}
+     * @param millis playback duration to prefetch, default 10 seconds
+     * @return false if the disk cache is disabled or the service is not bound yet
+     */
+    public boolean prefetch(String url, HeaderSet headers, @Nullable Long bytes, @Nullable Long millis) {
+        return service != null && service.prefetch(url, headers, bytes, millis);
+    }
+
+    /**
+     * Downloads {@code url} for offline playback, a following play of it reads the downloaded bytes from disk.
+     */
+    public void download(String url, HeaderSet headers) {
+        if (service != null) {
+            service.execute(s -> s.download(url, headers));
+        } else {
+            pendingCommands.add(() -> download(url, headers));
+        }
+    }
+
+    public void cancelDownload(String url) {
+        if (service != null) {
+            service.execute(s -> s.cancelDownload(url));
+        } else {
+            pendingCommands.add(() -> cancelDownload(url));
+        }
+    }
+
+    /**
+     * Cancels the download of {@code url} and deletes its downloaded bytes.
+     */
+    public void removeDownload(String url) {
+        if (service != null) {
+            service.execute(s -> s.removeDownload(url));
+        } else {
+            pendingCommands.add(() -> removeDownload(url));
+        }
+    }
+
+    /**
+     * @param max downloads running at the same time, default 2
+     */
+    public void setMaxParallelDownloads(int max) {
+        if (service != null) {
+            service.execute(s -> s.setMaxParallelDownloads(max));
+        } else {
+            pendingCommands.add(() -> setMaxParallelDownloads(max));
+        }
+    }
+
+    /**
+     * Replies with url, state and progress of every download.
+     */
+    public void getDownloads(Reply<List<Map<String, Object>>> reply) {
+        query(MediaPlayerService::getDownloads, reply);
+    }
+
+    /**
+     * @param useOkHttp use the pooled OkHttp stack, default true
+     */
+    public void configureHttpStack(boolean useOkHttp) {
+        if (service != null) {
+            service.execute(s -> s.configureHttpStack(useOkHttp));
+        } else {
+            pendingCommands.add(() -> configureHttpStack(useOkHttp));
+        }
+    }
+
+    /**
+     * Replies with connection setup and reuse counters.
+     */
+    public void getHttpStats(Reply<Map<String, Object>> reply) {
+        query(MediaPlayerService::getHttpStats, reply);
+    }
+
+    /**
+     * Replies with notification post counters.
+     */
+    public void getNotificationStats(Reply<Map<String, Object>> reply) {
+        query(MediaPlayerService::getNotificationStats, reply);
+    }
+
+    /**
+     * Replies with cache hit/miss counters, null if the cache is disabled.
+     */
+    public void getCacheStats(Reply<Map<String, Object>> reply) {
+        query(MediaPlayerService::getCacheStats, reply);
     }
 
     public int getState() {
         return this.currentPlayerStatus;
     }
 
-    public void startMediaPlayer(String url, float volume, int position, String headers) {
-        Intent intent = new Intent();
-        intent.setAction(MediaPlayerService.BROADCAST_TO_SERVICE);
-        intent.putExtra(MediaPlayerService.PLAYER_FUNCTION_TYPE, MediaPlayerService.PLAY_MEDIA_PLAYER);
-        intent.putExtra(MediaPlayerService.PLAYER_TRACK_URL, url);
-        intent.putExtra(MediaPlayerService.PLAYER_VOLUME, volume);
-        intent.putExtra(MediaPlayerService.PLAYER_POSITION, position);
-        intent.putExtra(MediaPlayerService.PLAYER_HEADERS, headers);
-        context.sendBroadcast(intent);
+    public void startMediaPlayer(String url, float volume, int position, HeaderSet headers) {
+        if (service != null) {
+            service.execute(s -> s.playMediaPlayer(url, volume, position, headers, null));
+        } else {
+            pendingCommands.add(() -> startMediaPlayer(url, volume, position, headers));
+        }
     }
 
     private void onServicePlay() {
@@ -220,56 +600,141 @@ public class MediaPlayerDelegate {
         }
     }
 
-    private void onServiceDuration(long duration) {
-        if (listener != null) {
-            listener.onDuration(duration);
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = ((MediaPlayerService.LocalBinder) binder).getService();
+            service.execute(s -> s.setCallback(callbackFromService));
+            if(enableLogging) {
+                Log.i(LOGGING_LABEL, "service connected, replaying " + pendingCommands.size() + " commands");
+            }
+            List<Runnable> commands = new ArrayList<>(pendingCommands);
+            pendingCommands.clear();
+            for (Runnable command : commands) {
+                command.run();
+            }
         }
-    }
 
-    private void onServicePosition(long position) {
-        if (listener != null) {
-            listener.onPosition(position);
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            service = null;
         }
-    }
+    };
 
-    private void onServiceBuffer(int percent) {
-        if (listener != null) {
-            listener.onBuffer(percent);
+    /**
+     * called on the service's playback thread
+     */
+    private final MediaPlayerCallback callbackFromService = new MediaPlayerCallback() {
+        @Override
+        public void onStatus(int status, String message) {
+            currentPlayerStatus = status;
+            switch (currentPlayerStatus) {
+                case MediaPlayerService.PLAYER_STATUS_PLAYING:
+                    onServicePlay();
+                    break;
+                case MediaPlayerService.PLAYER_STATUS_PAUSED:
+                    onServicePause();
+                    break;
+                case MediaPlayerService.PLAYER_STATUS_STOPPED:
+                    onServiceStop();
+                    break;
+                case MediaPlayerService.PLAYER_STATUS_COMPLETED:
+                    onServiceComplete();
+                    break;
+                case MediaPlayerService.PLAYER_STATUS_ERROR:
+                    onServiceError(message);
+                    break;
+            }
+        }
+
+        @Override
+        public void onDuration(long duration) {
+            if (listener != null) {
+                listener.onDuration(duration);
+            }
+        }
+
+        @Override
+        public void onPosition(long position) {
+            if (listener != null) {
+                listener.onPosition(position);
+            }
+        }
+
+        @Override
+        public void onBuffer(int percent) {
+            if (listener != null) {
+                listener.onBuffer(percent);
+            }
+        }
+
+        @Override
+        public void onResumeLatency(long latency, boolean warm) {
+            if (listener != null) {
+                listener.onResumeLatency(latency, warm);
+            }
+        }
+
+        @Override
+        public void onTrackIndexChanged(int index) {
+            if (listener != null) {
+                listener.onTrackIndexChanged(index);
+            }
+        }
+
+        @Override
+        public void onPrefetchUsed(String url, long prefetchedBytes, long usedBytes) {
+            if (listener != null) {
+                listener.onPrefetchUsed(url, prefetchedBytes, usedBytes);
+            }
+        }
+
+        @Override
+        public void onMetrics(Map<String, Object> metrics) {
+            if (listener != null) {
+                listener.onMetrics(metrics);
+            }
+        }
+
+        @Override
+        public void onDownloadProgress(String url, int state, long downloadedBytes, long contentLength) {
+            if (listener != null) {
+                listener.onDownloadProgress(url, state, downloadedBytes, contentLength);
+            }
+        }
+
+        @Override
+        public void onBitrateChanged(int bitrate, String url, String reason) {
+            if (listener != null) {
+                listener.onBitrateChanged(bitrate, url, reason);
+            }
+        }
+
+        @Override
+        public void onSleepTimerFired() {
+            if (listener != null) {
+                listener.onSleepTimerFired();
+            }
+        }
+
+        @Override
+        public void onCue(int id, long position) {
+            if (listener != null) {
+                listener.onCue(id, position);
+            }
+        }
+
+        @Override
+        public void onSpeedChanged(float speed, float pitch) {
+            if (listener != null) {
+                listener.onSpeedChanged(speed, pitch);
+            }
         }
-    }
 
-    private BroadcastReceiver receiverFromService = new BroadcastReceiver() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            String action = intent.getAction();
-            if (MediaPlayerService.SERVICE_TO_BROADCAST.equals(action)) {
-                int actionType = intent.getIntExtra(MediaPlayerService.ACTION_TYPE_KEY, 0);
-                if (actionType == MediaPlayerService.ACTION_TYPE_STATUS) {
-                    currentPlayerStatus = intent.getIntExtra(MediaPlayerService.PLAYER_STATUS_KEY, 0);
-                    switch (currentPlayerStatus) {
-                        case MediaPlayerService.PLAYER_STATUS_PLAYING:
-                            onServicePlay();
-                            break;
-                        case MediaPlayerService.PLAYER_STATUS_PAUSED:
-                            onServicePause();
-                            break;
-                        case MediaPlayerService.PLAYER_STATUS_STOPPED:
-                            onServiceStop();
-                            break;
-                        case MediaPlayerService.PLAYER_STATUS_COMPLETED:
-                            onServiceComplete();
-                            break;
-                        case MediaPlayerService.PLAYER_STATUS_ERROR:
-                            onServiceError(intent.getStringExtra(MediaPlayerService.PLAYER_STATUS_MESSAGE_KEY));
-                            break;
-                    }
-                } else if (actionType == MediaPlayerService.ACTION_TYPE_DURATION) {
-                    onServiceDuration(intent.getLongExtra(MediaPlayerService.PLAYER_DURATION_KEY, 0));
-                } else if (actionType == MediaPlayerService.ACTION_TYPE_POSITION) {
-                    onServicePosition(intent.getLongExtra(MediaPlayerService.PLAYER_POSITION_KEY, 0));
-                } else if (actionType == MediaPlayerService.ACTION_TYPE_BUFFER) {
-                    onServiceBuffer(intent.getIntExtra(MediaPlayerService.PLAYER_BUFFER_KEY, 0));
-                }
+        public void onPlayerEvent(int playerId, String method, Object args) {
+            if (listener != null) {
+                listener.onPlayerEvent(playerId, method, args);
             }
         }
     };
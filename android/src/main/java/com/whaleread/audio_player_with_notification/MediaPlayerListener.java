@@ -1,5 +1,7 @@
 package com.whaleread.audio_player_with_notification;
 
+import java.util.Map;
+
 public interface MediaPlayerListener {
     void onPlay();
 
@@ -16,4 +18,62 @@ public interface MediaPlayerListener {
     void onPosition(long position);
 
     void onBuffer(int percent);
+
+    /**
+     * @param latency milliseconds between the resume request and the player being ready to render audio
+     * @param warm whether the paused player was kept alive (true) or had to be rebuilt (false)
+     */
+    void onResumeLatency(long latency, boolean warm);
+
+    /**
+     * @param index index of the queue item that is now playing
+     */
+    void onTrackIndexChanged(int index);
+
+    /**
+     * @param prefetchedBytes bytes filled into the cache by prefetch
+     * @param usedBytes bytes of the prefetch that playback read from the cache
+     */
+    void onPrefetchUsed(String url, long prefetchedBytes, long usedBytes);
+
+    /**
+     * @param metrics periodic snapshot of the playback metrics, see {@link MediaPlayerDelegate#getMetrics}
+     */
+    void onMetrics(Map<String, Object> metrics);
+
+    /**
+     * @param state one of the {@code DownloadQueue.STATE_*} constants
+     * @param contentLength total bytes, {@link com.google.android.exoplayer2.C#LENGTH_UNSET} until the server reports it
+     */
+    void onDownloadProgress(String url, int state, long downloadedBytes, long contentLength);
+
+    /**
+     * @param bitrate bits per second of the rendition or adaptive track now played
+     * @param url     the rendition of a bitrate ladder, null for HLS and DASH tracks
+     * @param reason  {@code initial}, {@code seek}, {@code resume}, {@code stall} or {@code adaptive}
+     */
+    void onBitrateChanged(int bitrate, String url, String reason);
+
+    /**
+     * The sleep timer paused playback.
+     */
+    void onSleepTimerFired();
+
+    /**
+     * Playback crossed a cue point.
+     *
+     * @param id index of the cue in the list given to {@link MediaPlayerDelegate#setCuePoints}
+     */
+    void onCue(int id, long position);
+
+    /**
+     * Positions and durations stay in media time, {@code speed} converts them to listening time.
+     */
+    void onSpeedChanged(float speed, float pitch);
+
+    /**
+     * @param playerId id of a secondary player, player 0 reports through the other methods
+     * @param method   the event, named like the Dart events of player 0, e.g. {@code onPlay} or {@code onDuration}
+     */
+    void onPlayerEvent(int playerId, String method, Object args);
 }
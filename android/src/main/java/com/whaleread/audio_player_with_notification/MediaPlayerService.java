@@ -5,6 +5,8 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -13,71 +15,86 @@ import android.media.AudioAttributes;
 import android.media.AudioFocusRequest;
 import android.media.AudioManager;
 import android.net.Uri;
+import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Process;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseArray;
 import android.widget.RemoteViews;
 
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.DefaultRenderersFactory;
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.ExoPlayerFactory;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.PlaybackParameters;
 import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.RenderersFactory;
+import com.google.android.exoplayer2.SeekParameters;
 import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
 import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
+import com.google.android.exoplayer2.source.ConcatenatingMediaSource;
 import com.google.android.exoplayer2.source.ExtractorMediaSource;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.MediaSourceEventListener;
+import com.google.android.exoplayer2.source.dash.DashMediaSource;
+import com.google.android.exoplayer2.source.dash.DefaultDashChunkSource;
+import com.google.android.exoplayer2.source.hls.HlsMediaSource;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
-import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.util.Util;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 
-public class MediaPlayerService extends Service implements Runnable {
+/**
+ * Plays the queue in the foreground with a notification.
+ * <p>
+ * The player, its listeners, timers and the notification buttons all run on a dedicated playback thread. Commands from the
+ * delegate are handed to it in order through the {@link CommandQueue}, events go back through {@link MediaPlayerCallback}
+ * from that thread, so the main thread only posts and never waits on the player.
+ */
+public class MediaPlayerService extends Service implements PositionTicker.Source {
+    /**
+     * a command run on the playback thread
+     */
+    interface Command {
+        void run(MediaPlayerService service);
+    }
+
     @SuppressWarnings("ConstantConditions")
     public static final String BROADCAST_TO_SERVICE = MediaPlayerService.class.getPackage().getName() + ".broadcastToService";
-    @SuppressWarnings("ConstantConditions")
-    public static final String SERVICE_TO_BROADCAST = MediaPlayerService.class.getPackage().getName() + ".serviceToBroadcast";
     public static final String POSITION_NOTIFY_INTERVAL_KEY = "positionNotifyInterval";
     public static final String AUDIO_FOCUS_KEY = "audioFocus";
     public static final String ENABLE_LOGGING_KEY = "enableLogging";
-    public static final String ACTION_TYPE_KEY = "actionType";
     public static final String NOTIFICATION_NAME_KEY = "notificationName";
-    public static final int ACTION_TYPE_STATUS = 1;
-    public static final int ACTION_TYPE_DURATION = 2;
-    public static final int ACTION_TYPE_POSITION = 3;
-    public static final int ACTION_TYPE_BUFFER = 4;
+    static final long SEEK_WINDOW_MILLIS = 100;
+    private static final String NOTIFICATION_CHANNEL_ID = "com.whaleread/audio_player_with_notification";
+    public static final String WARM_PAUSE_KEY = "warmPause";
+    public static final String WARM_PAUSE_TIMEOUT_KEY = "warmPauseTimeout";
+    /**
+     * function types accepted from the notification {@link PendingIntent}s, all other commands are direct calls through {@link LocalBinder}
+     */
     public static final String PLAYER_FUNCTION_TYPE = "playerFunctionType";
-    public static final String PLAYER_TRACK_URL = "trackURL";
-    public static final String PLAYER_HEADERS = "headers";
-    public static final String PLAYER_VOLUME = "volume";
-    public static final String PLAYER_POSITION = "position";
-    public static final int PLAY_MEDIA_PLAYER = 1;
-    public static final int PAUSE_MEDIA_PLAYER = 2;
-    public static final int RESUME_MEDIA_PLAYER = 3;
     public static final int STOP_MEDIA_PLAYER = 4;
-    public static final int CHANGE_PLAYER_TRACK = 5;
     public static final int TOGGLE_MEDIA_PLAYER = 6;
-    public static final int SET_VOLUME = 7;
-    public static final int SEEK_TO = 8;
-    public static final int UPDATE_NOTIFICATION = 9;
-    public static final int UPDATE_NOTIFICATION_THEME = 10;
-    public static final int UPDATE_OPTIONS = 11;
-    public static final String PLAYER_STATUS_KEY = "playerCurrentStatus";
-    public static final String PLAYER_STATUS_MESSAGE_KEY = "playerStatusMessage";
-    public static final String PLAYER_DURATION_KEY = "playerDuration";
-    public static final String PLAYER_POSITION_KEY = "playerCurrentPosition";
-    public static final String PLAYER_BUFFER_KEY = "playerCurrentBuffer";
     public static final int PLAYER_STATUS_INITIAL = -1;
     public static final int PLAYER_STATUS_STOPPED = 0;
     public static final int PLAYER_STATUS_PLAYING = 1;
@@ -85,12 +102,6 @@ public class MediaPlayerService extends Service implements Runnable {
     public static final int PLAYER_STATUS_COMPLETED = 3;
     public static final int PLAYER_STATUS_ERROR = 4;
 
-    public static final String NOTIFICATION_TITLE_KEY = "notificationTitle";
-    public static final String NOTIFICATION_SUBTITLE_KEY = "notificationSubtitle";
-    public static final String NOTIFICATION_TITLE_COLOR_KEY = "notificationTitleColor";
-    public static final String NOTIFICATION_SUBTITLE_COLOR_KEY = "notificationSubtitleColor";
-    public static final String NOTIFICATION_BACKGROUND_COLOR_KEY = "notificationBackgroundColor";
-
     private static final String LOGGING_LABEL = "AudioPlayer";
 
     private static final String DEFAULT_USER_AGENT = "ExoPlayer/2.9.6 (Android " + Build.VERSION.RELEASE + ") Mobile";
@@ -98,31 +109,186 @@ public class MediaPlayerService extends Service implements Runnable {
     private SimpleExoPlayer player;
 //    private volatile MediaPlayer player;
     private AudioManager audioManager;
-    private Handler handler = new Handler();
-    private String url;
-    private Map<String, String> headers;
+    private HandlerThread playbackThread;
+    /**
+     * handler of the playback thread
+     */
+    private Handler handler;
+    private CommandQueue commands;
+    private final List<MediaItem> queue = new ArrayList<>();
+    /**
+     * index of the current item in {@link #queue}, kept while the player is released
+     */
+    private int queueIndex = 0;
+    /**
+     * the prepared queue, the player buffers into the next item while the current one plays
+     */
+    private ConcatenatingMediaSource mediaSource;
     private long position = C.POSITION_UNSET;
-    private int bufferedPercent = 0;
 //    private float volume = -1;
     private String notificationName = "AudioPlayerService";
-    private long positionNotifyInterval = 200;
+    private PositionTicker positionTicker;
     private int status = PLAYER_STATUS_INITIAL;
     private boolean autoResume = false;
     private boolean audioFocus = true;
     private boolean enableLogging = false;
     private boolean durationSent = false;
+    /**
+     * keep the player and its buffer alive on pause, release it only after {@link #warmPauseTimeout}
+     */
+    private boolean warmPause = true;
+    private long warmPauseTimeout = 5 * 60 * 1000;
+    /**
+     * elapsed realtime of the last resume request, 0 if no resume is pending
+     */
+    private long resumeRequestedAt = 0;
+    private boolean resumeWarm = false;
+    private final Runnable idleReleaseRunnable = () -> {
+        if (player != null && !player.getPlayWhenReady()) {
+            if (enableLogging) {
+                Log.i(LOGGING_LABEL, "release warm paused player after " + warmPauseTimeout + "ms");
+            }
+            releasePlayer();
+        }
+    };
+    /**
+     * renditions of the single item started by {@link #playLadder}, null for other items
+     */
+    @Nullable
+    private BitrateLadder ladder;
+    /**
+     * bits per second of the rendition or adaptive track being played, {@link Format#NO_VALUE} if unknown
+     */
+    private volatile int bitrate = Format.NO_VALUE;
+    /**
+     * whether the player was ready since it was last prepared or seeked, so buffering means a stall
+     */
+    private boolean playerReady = false;
+    private final Runnable stallSwitchRunnable = () -> {
+        if (player != null && ladder != null && player.getPlaybackState() == Player.STATE_BUFFERING) {
+            switchRendition(ladder.selectAfterStall(bandwidthMeter.getBitrateEstimate()), BitrateLadder.REASON_STALL);
+        }
+    };
+    /**
+     * speed and pitch, kept across player rebuilds
+     */
+    private volatile PlaybackParameters playbackParameters = PlaybackParameters.DEFAULT;
+    private SleepTimer sleepTimer;
+    private CueIndex cues;
+    private ConnectivityMonitor connectivity;
+    private ResilientLoadErrorPolicy loadErrorPolicy;
+    /**
+     * whether the player failed on a transient error while offline, it is prepared again once the network is back
+     */
+    private boolean waitingForNetwork = false;
     private AudioManager.OnAudioFocusChangeListener onAudioFocusChangeListener;
 
+    private final IBinder binder = new LocalBinder();
+    /**
+     * opt-in disk cache for http sources, null while disabled
+     */
+    private volatile MediaCache mediaCache;
+    private volatile Prefetcher prefetcher;
+    /**
+     * offline downloads, created on first use
+     */
+    private volatile DownloadQueue downloadQueue;
+    private PlaybackStateStore stateStore;
+    /**
+     * whether the queue changed since it was last persisted
+     */
+    private boolean queueDirty = false;
+    private final Runnable persistRunnable = new Runnable() {
+        @Override
+        public void run() {
+            persistState();
+            handler.postDelayed(this, PlaybackStateStore.SAVE_INTERVAL);
+        }
+    };
+    /**
+     * elapsed realtime of restoring a persisted session, 0 once it is ready
+     */
+    private long restoreRequestedAt = 0;
+    /**
+     * timings, stalls and load counters of every player, see {@link #getMetrics()}
+     */
+    private final PlaybackMetrics metrics = new PlaybackMetrics();
+    private volatile BufferingPolicy bufferingPolicy = BufferingPolicy.BALANCED;
+    /**
+     * build players with only the audio renderer and the audio extractors
+     */
+    private volatile boolean audioOnly = true;
+    /**
+     * buffer memory of all players, with each player comparing its total to its own target
+     */
+    private final DefaultAllocator allocator = new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+    /**
+     * one throughput estimate fed by the transfers of all players
+     */
+    private final DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter.Builder().build();
+    /**
+     * bytes all players may buffer together, {@link C#LENGTH_UNSET} leaves the buffering policy's target alone
+     */
+    private volatile long memoryBudget = C.LENGTH_UNSET;
+    /**
+     * secondary players by id, player 0 is {@link #player}
+     */
+    private final SparseArray<PlayerSession> sessions = new SparseArray<>();
+    private final PlayerSession.Listener sessionListener = (playerId, method, args) -> {
+        if (callback != null) {
+            callback.onPlayerEvent(playerId, method, args);
+        }
+    };
+    /**
+     * policy the current player was built with, null while there is no player
+     */
+    private volatile BufferingPolicy livePolicy;
+    /**
+     * seek target waiting for the coalescing window to pass, {@link C#POSITION_UNSET} if none
+     */
+    private long pendingSeekPosition = C.POSITION_UNSET;
+    private boolean pendingSeekExact = true;
+    /**
+     * elapsed realtime of the last seek applied to the player
+     */
+    private long lastSeekAt = 0;
+    private final Runnable seekRunnable = this::applyPendingSeek;
+    /**
+     * pooled http connections and data source factories shared by every track for the lifetime of the service
+     */
+    private volatile HttpStack httpStack = new HttpStack(true, DEFAULT_USER_AGENT, metrics);
+    private MediaPlayerCallback callback;
+    /**
+     * period of metrics pushed to the callback, 0 disables the push
+     */
+    private long metricsInterval = 0;
+    private final Runnable metricsPushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (callback != null) {
+                callback.onMetrics(getMetrics());
+            }
+            handler.postDelayed(this, metricsInterval);
+        }
+    };
+
     private int notificationId = 1;
     private RemoteViews remoteView;
     private NotificationManager notificationManager;
     private NotificationCompat.Builder notificationCompatBuilder;
+    private NotificationRenderer notificationRenderer;
 
     private AudioAttributes audioAttributes;
+    /**
+     * duration of the last {@link #onStartCommand}, the first one includes building the notification
+     */
+    private volatile long startCommandNanos;
 
+    /**
+     * Builds the notification view, its intents and builder. Runs once per service lifetime, later starts reuse them.
+     */
     private void createNotification() {
         remoteView = new RemoteViews(getPackageName(), R.layout.layout_notification_view);
-        remoteView.setImageViewResource(R.id.play_btn, status == MediaPlayerService.PLAYER_STATUS_PLAYING ? android.R.drawable.ic_media_pause : android.R.drawable.ic_media_play);
 
         Intent stopIntent = new Intent()
                 .setAction(MediaPlayerService.BROADCAST_TO_SERVICE)
@@ -136,15 +302,11 @@ public class MediaPlayerService extends Service implements Runnable {
         PendingIntent pendingPlayIntent = PendingIntent.getBroadcast(this, 1, playIntent, PendingIntent.FLAG_UPDATE_CURRENT);
         remoteView.setOnClickPendingIntent(R.id.play_btn, pendingPlayIntent);
 
-        Intent contentIntent = new Intent(this, getMainActivityClass(this));
+        Intent contentIntent = new Intent().setComponent(getMainActivityComponent(this));
         PendingIntent pendingContentIntent = PendingIntent.getActivity(this, 2, contentIntent, PendingIntent.FLAG_UPDATE_CURRENT);
 
-        String channelId = "com.whaleread/audio_player_with_notification" + System.currentTimeMillis();
         notificationCompatBuilder =
-                new NotificationCompat.Builder(this.getApplicationContext(), channelId);
-
-        notificationManager =
-                (NotificationManager) this.getSystemService(Context.NOTIFICATION_SERVICE);
+                new NotificationCompat.Builder(this.getApplicationContext(), NOTIFICATION_CHANNEL_ID);
 
         notificationCompatBuilder
                 // Title for API < 16 devices.
@@ -163,198 +325,761 @@ public class MediaPlayerService extends Service implements Runnable {
         ;
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            NotificationChannel channel = new NotificationChannel(channelId,
+            // earlier versions registered a new channel with a timestamped id on every start
+            for (NotificationChannel channel : notificationManager.getNotificationChannels()) {
+                String id = channel.getId();
+                if (id.startsWith(NOTIFICATION_CHANNEL_ID) && !id.equals(NOTIFICATION_CHANNEL_ID)) {
+                    notificationManager.deleteNotificationChannel(id);
+                }
+            }
+            createNotificationChannel();
+        }
+    }
+
+    /**
+     * Registers the notification channel, registering it again only updates its name.
+     */
+    private void createNotificationChannel() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(NOTIFICATION_CHANNEL_ID,
                     notificationName,
                     NotificationManager.IMPORTANCE_LOW);
             notificationManager.createNotificationChannel(channel);
-            notificationCompatBuilder.setChannelId(channelId);
         }
     }
 
-    private void updateNotification(String title, String subtitle) {
+    void updateNotification(String title, String subtitle) {
         if (enableLogging) {
             Log.i(LOGGING_LABEL, "update notification with title[" + title + "], subtitle[" + subtitle + "]");
         }
-        if (title != null) {
-            remoteView.setTextViewText(R.id.title, title);
+        notificationRenderer.setText(title, subtitle);
+    }
+
+    void updateNotificationTheme(String titleColor, String subtitleColor, String backgroundColor) {
+        if (enableLogging) {
+            Log.i(LOGGING_LABEL, "update notification theme with titleColor[" + titleColor + "], subtitleColor[" + subtitleColor + "], backgroundColor[" + backgroundColor + "]");
         }
-        if (subtitle != null) {
-            remoteView.setTextViewText(R.id.subtitle, subtitle);
+        notificationRenderer.setColors(parseColor(titleColor), parseColor(subtitleColor), parseColor(backgroundColor));
+    }
+
+    private static Integer parseColor(String color) {
+        return color == null ? null : Color.parseColor(color);
+    }
+
+    /**
+     * @return notification {@code posts}, {@code suppressed} updates and the duration of the last service start
+     */
+    Map<String, Object> getNotificationStats() {
+        Map<String, Object> stats = notificationRenderer.getStats();
+        stats.put("startCommandMicros", startCommandNanos / 1000);
+        return stats;
+    }
+
+    /**
+     * Gives the in-process {@link MediaPlayerDelegate} direct access to the service, so commands and events are plain method calls.
+     */
+    public class LocalBinder extends Binder {
+        MediaPlayerService getService() {
+            return MediaPlayerService.this;
         }
-        notificationManager.notify(notificationId, notificationCompatBuilder.build());
     }
 
-    private void updateNotificationTheme(String titleColor, String subtitleColor, String backgroundColor) {
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    /**
+     * Runs {@code command} on the playback thread after the commands submitted before it. Callable from any thread.
+     */
+    void execute(Command command) {
+        commands.submit(CommandQueue.TYPE_OTHER, command);
+    }
+
+    CommandQueue getCommandQueue() {
+        return commands;
+    }
+
+    /**
+     * @return the status last sent to the callback, read on the playback thread
+     */
+    int getStatus() {
+        return status;
+    }
+
+    void setCallback(@Nullable MediaPlayerCallback callback) {
+        this.callback = callback;
+        positionTicker.setCallback(callback);
+        if (callback != null && status != PLAYER_STATUS_INITIAL) {
+            // e.g. a session restored before the delegate bound
+            callback.onStatus(status, null);
+            callback.onTrackIndexChanged(queueIndex);
+        }
+    }
+
+    /**
+     * Prepares the persisted session paused at its saved position.
+     */
+    private void restoreState() {
+        PlaybackStateStore.State state = stateStore.load();
+        if (state == null || (state.status != PLAYER_STATUS_PLAYING && state.status != PLAYER_STATUS_PAUSED)) {
+            return;
+        }
         if (enableLogging) {
-            Log.i(LOGGING_LABEL, "update notification theme with titleColor[" + titleColor + "], subtitleColor[" + subtitleColor + "], backgroundColor[" + backgroundColor + "]");
+            Log.i(LOGGING_LABEL, "restore " + state.queue.size() + " items at index " + state.queueIndex + ", position " + state.position);
         }
-        if (titleColor != null) {
-            remoteView.setTextColor(R.id.title, Color.parseColor(titleColor));
+        restoreRequestedAt = SystemClock.elapsedRealtime();
+        queue.addAll(state.queue);
+        queueIndex = state.queueIndex;
+        position = state.position;
+        durationSent = false;
+        startAutoPlay = false;
+        try {
+            initializePlayer();
+            sendPlayerStatus(PLAYER_STATUS_PAUSED, null);
+            // the restored player is paused, release it like one paused by the user if it is not resumed
+            handler.removeCallbacks(idleReleaseRunnable);
+            handler.postDelayed(idleReleaseRunnable, warmPauseTimeout);
+        } catch (Exception e) {
+            restoreRequestedAt = 0;
+            Log.e(LOGGING_LABEL, "failed to restore playback", e);
         }
-        if (subtitleColor != null) {
-            remoteView.setTextColor(R.id.subtitle, Color.parseColor(subtitleColor));
+    }
+
+    private void persistState() {
+        if (queueDirty) {
+            stateStore.saveQueue(queue);
+            queueDirty = false;
         }
-        if (backgroundColor != null) {
-            remoteView.setInt(R.id.container, "setBackgroundColor", Color.parseColor(backgroundColor));
+        long position;
+        int index;
+        if (player != null) {
+            position = pendingSeekPosition != C.POSITION_UNSET ? pendingSeekPosition : Math.max(0, player.getContentPosition());
+            index = player.getCurrentWindowIndex();
+        } else {
+            position = Math.max(0, this.position);
+            index = queueIndex;
         }
-        notificationManager.notify(notificationId, notificationCompatBuilder.build());
+        stateStore.save(index, position, status);
+    }
+
+    /**
+     * @param foreground whether any activity of the app is visible, position ticks slow down while it is not
+     */
+    void setAppInForeground(boolean foreground) {
+        positionTicker.setForeground(foreground);
+    }
+
+    Map<String, Object> getMetrics() {
+        Map<String, Object> snapshot = metrics.snapshot();
+        snapshot.put("bufferingPolicy", (livePolicy != null ? livePolicy : bufferingPolicy).toMap());
+        snapshot.put("commands", commands.getStats());
+        snapshot.put("audioOnly", audioOnly);
+        snapshot.put("allocatedBytes", (long) allocator.getTotalBytesAllocated());
+        snapshot.put("memoryBudget", memoryBudget);
+        snapshot.put("bitrateEstimate", bandwidthMeter.getBitrateEstimate());
+        snapshot.put("bitrate", bitrate);
+        snapshot.put("connected", connectivity.isConnected());
+        snapshot.put("sleepTimerMillis", sleepTimer.getRemainingMillis());
+        snapshot.put("speed", (double) playbackParameters.speed);
+        snapshot.put("pitch", (double) playbackParameters.pitch);
+        return snapshot;
+    }
+
+    /**
+     * @param interval milliseconds between metrics pushed to the callback, 0 stops the push
+     */
+    void setMetricsInterval(long interval) {
+        metricsInterval = interval;
+        handler.removeCallbacks(metricsPushRunnable);
+        if (interval > 0) {
+            handler.postDelayed(metricsPushRunnable, interval);
+        }
+    }
+
+    /**
+     * @param listening whether the Dart side has position or buffer handlers, position ticks slow down while it has none
+     */
+    void setPositionListening(boolean listening) {
+        positionTicker.setListening(listening);
     }
 
-    @Nullable
     @Override
-    public IBinder onBind(Intent intent) {
-        return null;
+    public void onCreate() {
+        super.onCreate();
+        playbackThread = new HandlerThread("AudioPlayerPlayback", Process.THREAD_PRIORITY_AUDIO);
+        playbackThread.start();
+        handler = new Handler(playbackThread.getLooper());
+        commands = new CommandQueue(this, handler, metrics);
+        positionTicker = new PositionTicker(handler, this);
+        sleepTimer = new SleepTimer(handler, this::onSleepTimerFired);
+        cues = new CueIndex(handler, (id, position) -> {
+            if (callback != null) {
+                callback.onCue(id, position);
+            }
+        });
+        IntentFilter intentFilter = new IntentFilter(BROADCAST_TO_SERVICE);
+        registerReceiver(playerReceiver, intentFilter, null, handler);
+        connectivity = new ConnectivityMonitor(this, this::onNetworkAvailable);
+        connectivity.register(this, handler);
+        loadErrorPolicy = new ResilientLoadErrorPolicy(metrics, connectivity);
+        audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
+        notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        notificationRenderer = new NotificationRenderer(handler, notificationManager, notificationId);
+        stateStore = new PlaybackStateStore(this);
+        AudioManager.OnAudioFocusChangeListener listener = focusChange -> {
+            switch (focusChange) {
+                case AudioManager.AUDIOFOCUS_GAIN:
+                    if (status == PLAYER_STATUS_PAUSED && autoResume) {
+                        doResumePlayer();
+                        autoResume = false;
+                    }
+                    if (enableLogging) {
+                        Log.i(LOGGING_LABEL, "AUDIOFOCUS_GAIN");
+                    }
+                    break;
+                case AudioManager.AUDIOFOCUS_GAIN_TRANSIENT:
+                    if (enableLogging) {
+                        Log.i(LOGGING_LABEL, "AUDIOFOCUS_GAIN_TRANSIENT");
+                    }
+                    break;
+                case AudioManager.AUDIOFOCUS_GAIN_TRANSIENT_MAY_DUCK:
+                    if (enableLogging) {
+                        Log.i(LOGGING_LABEL, "AUDIOFOCUS_GAIN_TRANSIENT_MAY_DUCK");
+                    }
+                    break;
+                case AudioManager.AUDIOFOCUS_LOSS:
+                    if (enableLogging) {
+                        Log.i(LOGGING_LABEL, "AUDIOFOCUS_LOSS");
+                    }
+                    if (status == PLAYER_STATUS_PLAYING) {
+                        pausePlayer();
+                        autoResume = true;
+                    }
+                    break;
+                case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
+                    if (enableLogging) {
+                        Log.i(LOGGING_LABEL, "AUDIOFOCUS_LOSS_TRANSIENT");
+                    }
+                    if (status == PLAYER_STATUS_PLAYING) {
+                        pausePlayer();
+                        autoResume = true;
+                    }
+                    break;
+                case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
+                    if (enableLogging) {
+                        Log.i(LOGGING_LABEL, "AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK");
+                    }
+                    if (status == PLAYER_STATUS_PLAYING) {
+                        pausePlayer();
+                        autoResume = true;
+                    }
+                    break;
+            }
+        };
+        // focus changes are delivered on the main thread
+        onAudioFocusChangeListener = focusChange -> handler.post(() -> listener.onAudioFocusChange(focusChange));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            audioAttributes = new AudioAttributes.Builder()
+                    .setUsage(AudioAttributes.USAGE_MEDIA)
+                    .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                    .build();
+        }
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        if (intent.hasExtra(POSITION_NOTIFY_INTERVAL_KEY)) {
-            this.positionNotifyInterval = intent.getLongExtra(POSITION_NOTIFY_INTERVAL_KEY, 200);
-        }
-        if (intent.hasExtra(AUDIO_FOCUS_KEY)) {
-            this.audioFocus = intent.getBooleanExtra(AUDIO_FOCUS_KEY, true);
-        }
-        if (intent.hasExtra(ENABLE_LOGGING_KEY)) {
-            this.enableLogging = intent.getBooleanExtra(ENABLE_LOGGING_KEY, false);
-        }
-        if(intent.hasExtra(NOTIFICATION_NAME_KEY)) {
-            this.notificationName = intent.getStringExtra(NOTIFICATION_NAME_KEY);
-        }
-        if (audioManager == null) {
-            IntentFilter intentFilter = new IntentFilter(BROADCAST_TO_SERVICE);
-            registerReceiver(playerReceiver, intentFilter);
-            audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
-            if (audioFocus) {
-                onAudioFocusChangeListener = focusChange -> {
-                    switch (focusChange) {
-                        case AudioManager.AUDIOFOCUS_GAIN:
-                            if (status == PLAYER_STATUS_PAUSED && autoResume) {
-                                doResumePlayer();
-                                autoResume = false;
-                            }
-                            if (enableLogging) {
-                                Log.i(LOGGING_LABEL, "AUDIOFOCUS_GAIN");
-                            }
-                            break;
-                        case AudioManager.AUDIOFOCUS_GAIN_TRANSIENT:
-                            if (enableLogging) {
-                                Log.i(LOGGING_LABEL, "AUDIOFOCUS_GAIN_TRANSIENT");
-                            }
-                            break;
-                        case AudioManager.AUDIOFOCUS_GAIN_TRANSIENT_MAY_DUCK:
-                            if (enableLogging) {
-                                Log.i(LOGGING_LABEL, "AUDIOFOCUS_GAIN_TRANSIENT_MAY_DUCK");
-                            }
-                            break;
-                        case AudioManager.AUDIOFOCUS_LOSS:
-                            if (enableLogging) {
-                                Log.i(LOGGING_LABEL, "AUDIOFOCUS_LOSS");
-                            }
-                            if (status == PLAYER_STATUS_PLAYING) {
-                                pausePlayer();
-                                autoResume = true;
-                            }
-                            break;
-                        case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
-                            if (enableLogging) {
-                                Log.i(LOGGING_LABEL, "AUDIOFOCUS_LOSS_TRANSIENT");
-                            }
-                            if (status == PLAYER_STATUS_PLAYING) {
-                                pausePlayer();
-                                autoResume = true;
-                            }
-                            break;
-                        case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
-                            if (enableLogging) {
-                                Log.i(LOGGING_LABEL, "AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK");
-                            }
-                            if (status == PLAYER_STATUS_PLAYING) {
-                                pausePlayer();
-                                autoResume = true;
-                            }
-                            break;
+        execute(service -> service.handleStartCommand(intent));
+        return START_STICKY;
+    }
+
+    private void handleStartCommand(@Nullable Intent intent) {
+        long startedAt = SystemClock.elapsedRealtimeNanos();
+        if (intent != null) {
+            applyOptions(intent);
+            if (intent.hasExtra(ENABLE_LOGGING_KEY)) {
+                this.enableLogging = intent.getBooleanExtra(ENABLE_LOGGING_KEY, false);
+            }
+            if (intent.hasExtra(NOTIFICATION_NAME_KEY)) {
+                String notificationName = intent.getStringExtra(NOTIFICATION_NAME_KEY);
+                if (!TextUtils.equals(notificationName, this.notificationName)) {
+                    this.notificationName = notificationName;
+                    if (remoteView != null) {
+                        createNotificationChannel();
                     }
-                };
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                    audioAttributes = new AudioAttributes.Builder()
-                            .setUsage(AudioAttributes.USAGE_MEDIA)
-                            .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
-                            .build();
                 }
             }
         }
         if (player != null && player.getPlayWhenReady()) {
             sendPlayerStatus(PLAYER_STATUS_PLAYING, null);
         }
-        createNotification();
-        startForeground(notificationId, notificationCompatBuilder.build());
-        return START_STICKY;
+        if (intent == null && player == null && queue.isEmpty()) {
+            // restarted after the process was killed
+            restoreState();
+        }
+        if (remoteView == null) {
+            createNotification();
+            startForeground(notificationId, notificationRenderer.attach(remoteView, notificationCompatBuilder));
+        }
+        startCommandNanos = SystemClock.elapsedRealtimeNanos() - startedAt;
+        if (enableLogging) {
+            Log.i(LOGGING_LABEL, "onStartCommand took " + startCommandNanos / 1000 + "us");
+        }
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
         unregisterReceiver(playerReceiver);
-        releasePlayer();
+        connectivity.unregister(this);
+        handler.post(() -> {
+            commands.release();
+            releasePlayer();
+            for (int i = 0; i < sessions.size(); i++) {
+                sessions.valueAt(i).release();
+            }
+            sessions.clear();
+            notificationRenderer.release();
+            handler.removeCallbacks(persistRunnable);
+            handler.removeCallbacks(metricsPushRunnable);
+            if (prefetcher != null) {
+                prefetcher.release();
+            }
+            if (downloadQueue != null) {
+                downloadQueue.release();
+            }
+            httpStack.release();
+            playbackThread.quit();
+        });
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN || level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return;
+        }
+        execute(service -> {
+            if (player != null && !player.getPlayWhenReady()) {
+                if (enableLogging) {
+                    Log.i(LOGGING_LABEL, "release warm paused player on trim memory level " + level);
+                }
+                releasePlayer();
+            }
+        });
+    }
+
+    private void applyOptions(Intent intent) {
+        if (intent.hasExtra(POSITION_NOTIFY_INTERVAL_KEY)) {
+            positionTicker.setInterval(intent.getIntExtra(POSITION_NOTIFY_INTERVAL_KEY, 200));
+        }
+        if (intent.hasExtra(AUDIO_FOCUS_KEY)) {
+            this.audioFocus = intent.getBooleanExtra(AUDIO_FOCUS_KEY, true);
+        }
+        if (intent.hasExtra(WARM_PAUSE_KEY)) {
+            this.warmPause = intent.getBooleanExtra(WARM_PAUSE_KEY, true);
+        }
+        if (intent.hasExtra(WARM_PAUSE_TIMEOUT_KEY)) {
+            this.warmPauseTimeout = intent.getIntExtra(WARM_PAUSE_TIMEOUT_KEY, 5 * 60 * 1000);
+        }
+    }
+
+    /**
+     * @param bufferingPolicy takes effect when the player is next built, a playing or warm paused one keeps its policy
+     * @param audioOnly       takes effect when the player is next built, false restores the default renderers and extractors
+     */
+    void updateOptions(Boolean audioFocus, Integer positionNotifyInterval, Boolean warmPause, Integer warmPauseTimeout, @Nullable BufferingPolicy bufferingPolicy, @Nullable Boolean audioOnly) {
+        if (audioFocus != null) {
+            this.audioFocus = audioFocus;
+        }
+        if (positionNotifyInterval != null) {
+            positionTicker.setInterval(positionNotifyInterval);
+        }
+        if (warmPause != null) {
+            this.warmPause = warmPause;
+        }
+        if (warmPauseTimeout != null) {
+            this.warmPauseTimeout = warmPauseTimeout;
+        }
+        if (bufferingPolicy != null) {
+            if (enableLogging && !bufferingPolicy.equals(this.bufferingPolicy)) {
+                Log.i(LOGGING_LABEL, "buffering policy " + bufferingPolicy.toMap());
+            }
+            this.bufferingPolicy = bufferingPolicy;
+        }
+        if (audioOnly != null) {
+            this.audioOnly = audioOnly;
+        }
+    }
+
+    /**
+     * Enables the disk cache for http sources, takes effect on the next player preparation.
+     *
+     * @param maxBytes cache size budget, least recently used content is evicted beyond it
+     * @param ignoredQueryParams query parameters left out of cache keys, "*" ignores the whole query
+     */
+    void configureCache(boolean enabled, @Nullable Long maxBytes, @Nullable List<String> ignoredQueryParams) {
+        if (!enabled) {
+            if (prefetcher != null) {
+                prefetcher.release();
+                prefetcher = null;
+            }
+            mediaCache = null;
+            httpStack.setTransferListener(null);
+            return;
+        }
+        if (mediaCache == null) {
+            mediaCache = new MediaCache(this, maxBytes == null ? MediaCache.DEFAULT_MAX_BYTES : maxBytes, ignoredQueryParams);
+            prefetcher = new Prefetcher(mediaCache, handler, (url, prefetchedBytes, usedBytes) -> {
+                if (enableLogging) {
+                    Log.i(LOGGING_LABEL, "prefetch of " + url + " used " + usedBytes + "/" + prefetchedBytes + " bytes");
+                }
+                if (callback != null) {
+                    callback.onPrefetchUsed(url, prefetchedBytes, usedBytes);
+                }
+            });
+            httpStack.setTransferListener(mediaCache);
+        } else if (ignoredQueryParams != null) {
+            mediaCache.setIgnoredQueryParams(ignoredQueryParams);
+        }
+    }
+
+    /**
+     * @param useOkHttp use the pooled OkHttp stack, otherwise the platform HttpURLConnection one
+     */
+    void configureHttpStack(boolean useOkHttp) {
+        if (httpStack.isUsingOkHttp() != useOkHttp) {
+            HttpStack old = httpStack;
+            httpStack = new HttpStack(useOkHttp, DEFAULT_USER_AGENT, metrics);
+            httpStack.setTransferListener(mediaCache);
+            // sources already prepared keep loading through the old stack until they are replaced
+            old.release();
+        }
     }
 
+    Map<String, Object> getHttpStats() {
+        return httpStack.getStats();
+    }
+
+    /**
+     * Starts filling the head of {@code url} into the disk cache, so a following play of it starts from disk.
+     *
+     * @param bytes bytes to prefetch, if not set {@code millis} is converted assuming 128kbps
+     * @return false if the disk cache is disabled
+     */
+    boolean prefetch(String url, HeaderSet headers, @Nullable Long bytes, @Nullable Long millis) {
+        if (prefetcher == null) {
+            Log.w(LOGGING_LABEL, "prefetch requires the disk cache to be enabled");
+            return false;
+        }
+        long length = bytes != null ? bytes : (millis != null ? millis : Prefetcher.DEFAULT_PREFETCH_MILLIS) * Prefetcher.ASSUMED_BYTES_PER_SECOND / 1000;
+        execute(service -> {
+            if (prefetcher == null) {
+                return;
+            }
+            if (enableLogging) {
+                Log.i(LOGGING_LABEL, "prefetch " + length + " bytes of " + url);
+            }
+            prefetcher.prefetch(url, httpStack.getFactory(headers).createDataSource(), length);
+        });
+        return true;
+    }
+
+    /**
+     * Queues a download of the whole {@code url} for offline playback, a partially downloaded url resumes where it stopped.
+     */
+    void download(String url, HeaderSet headers) {
+        if (enableLogging) {
+            Log.i(LOGGING_LABEL, "download " + url);
+        }
+        getDownloadQueue().download(url, DownloadQueue.buildKey(url), httpStack.getFactory(headers).createDataSource());
+    }
+
+    void cancelDownload(String url) {
+        getDownloadQueue().cancel(DownloadQueue.buildKey(url));
+    }
+
+    /**
+     * Cancels the download of {@code url} and deletes its downloaded bytes.
+     */
+    void removeDownload(String url) {
+        getDownloadQueue().remove(DownloadQueue.buildKey(url));
+    }
+
+    void setMaxParallelDownloads(int max) {
+        getDownloadQueue().setMaxParallelDownloads(max);
+    }
+
+    List<Map<String, Object>> getDownloads() {
+        return getDownloadQueue().getDownloads();
+    }
+
+    private synchronized DownloadQueue getDownloadQueue() {
+        if (downloadQueue == null) {
+            downloadQueue = new DownloadQueue(this, handler, (url, state, downloadedBytes, contentLength) -> {
+                if (callback != null) {
+                    callback.onDownloadProgress(url, state, downloadedBytes, contentLength);
+                }
+            });
+        }
+        return downloadQueue;
+    }
+
+    @Nullable
+    Map<String, Object> getCacheStats() {
+        return mediaCache == null ? null : mediaCache.getStats();
+    }
+
+    /**
+     * Only the notification buttons talk to the service through broadcasts.
+     */
     private BroadcastReceiver playerReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
             if (BROADCAST_TO_SERVICE.equalsIgnoreCase(action)) {
                 int function = intent.getIntExtra(PLAYER_FUNCTION_TYPE, 0);
+                // queued behind the delegate's commands, so rapid taps collapse with them
                 switch (function) {
-                    case CHANGE_PLAYER_TRACK:
-                        changeTrack(intent.getStringExtra(PLAYER_TRACK_URL), intent.getStringExtra(PLAYER_HEADERS));
-                        break;
                     case STOP_MEDIA_PLAYER:
-                        stopPlayer();
-                        break;
-                    case PLAY_MEDIA_PLAYER:
-                        setVolume(intent.getFloatExtra(PLAYER_VOLUME, -1));
-                        seekTo(intent.getIntExtra(PLAYER_POSITION, -1));
-                        startMediaPlayer(intent.getStringExtra(PLAYER_TRACK_URL), intent.getStringExtra(PLAYER_HEADERS));
-                        break;
-                    case PAUSE_MEDIA_PLAYER:
-                        pausePlayer();
-                        break;
-                    case RESUME_MEDIA_PLAYER:
-                        resumePlayer();
+                        commands.submit(CommandQueue.TYPE_OTHER, MediaPlayerService::stopPlayer);
                         break;
                     case TOGGLE_MEDIA_PLAYER:
-                        togglePlayer();
-                        break;
-                    case SET_VOLUME:
-                        setVolume(intent.getFloatExtra(PLAYER_VOLUME, -1));
-                        break;
-                    case SEEK_TO:
-                        seekTo(intent.getIntExtra(PLAYER_POSITION, -1));
-                        break;
-                    case UPDATE_NOTIFICATION:
-                        updateNotification(intent.getStringExtra(NOTIFICATION_TITLE_KEY), intent.getStringExtra(NOTIFICATION_SUBTITLE_KEY));
-                        break;
-                    case UPDATE_NOTIFICATION_THEME:
-                        updateNotificationTheme(intent.getStringExtra(NOTIFICATION_TITLE_COLOR_KEY), intent.getStringExtra(NOTIFICATION_SUBTITLE_COLOR_KEY), intent.getStringExtra(NOTIFICATION_BACKGROUND_COLOR_KEY));
-                        break;
-                    case UPDATE_OPTIONS:
-                        if (intent.hasExtra(POSITION_NOTIFY_INTERVAL_KEY)) {
-                            MediaPlayerService.this.positionNotifyInterval = intent.getLongExtra(POSITION_NOTIFY_INTERVAL_KEY, 200);
-                        }
-                        if (intent.hasExtra(AUDIO_FOCUS_KEY)) {
-                            MediaPlayerService.this.audioFocus = intent.getBooleanExtra(AUDIO_FOCUS_KEY, true);
-                        }
+                        commands.submit(CommandQueue.TYPE_TOGGLE, MediaPlayerService::togglePlayer);
                         break;
                 }
-
             }
         }
     };
 
+    /**
+     * Starts {@code url}, or the queue if it is empty, unless the player is playing or paused, which is toggled instead.
+     * Decided here from the current status, so it never acts on a stale one.
+     */
+    void play(@Nullable String url, float volume, int position, HeaderSet headers, @Nullable String containerHint) {
+        if (status != PLAYER_STATUS_PLAYING && status != PLAYER_STATUS_PAUSED) {
+            playMediaPlayer(url, volume, position, headers, containerHint);
+        } else if (status == PLAYER_STATUS_PLAYING) {
+            pausePlayer();
+        } else {
+            resumePlayer();
+        }
+    }
+
+    void playMediaPlayer(String url, float volume, int position, HeaderSet headers, @Nullable String containerHint) {
+        setVolume(volume);
+        if (position >= 0) {
+            this.position = position;
+        }
+        startMediaPlayer(url, headers, containerHint);
+    }
+
+    /**
+     * Plays one item published at several bitrates, starting with the rendition the bandwidth estimate affords.
+     *
+     * @param bitrates bits per second of {@code urls}
+     * @see BitrateLadder
+     */
+    void playLadder(List<String> urls, List<Integer> bitrates, float volume, int position, HeaderSet headers, @Nullable String containerHint) {
+        BitrateLadder ladder = new BitrateLadder(urls, bitrates, headers, containerHint);
+        int index = ladder.select(bandwidthMeter.getBitrateEstimate());
+        ladder.current = index;
+        playMediaPlayer(ladder.getUrl(index), volume, position, headers, containerHint);
+        this.ladder = ladder;
+        sendBitrateChanged(ladder.getBitrate(index), ladder.getUrl(index), BitrateLadder.REASON_INITIAL);
+    }
+
+    /**
+     * Replaces the ladder item in the queue with rendition {@code index} and, if it is playing, re-prepares the player at
+     * {@link #position} or the current position.
+     */
+    private void switchRendition(int index, String reason) {
+        BitrateLadder ladder = this.ladder;
+        int playingIndex = player != null ? player.getCurrentWindowIndex() : queueIndex;
+        if (ladder == null || index == ladder.current || playingIndex != 0 || queue.isEmpty()) {
+            return;
+        }
+        ladder.current = index;
+        queue.set(0, new MediaItem(ladder.getUrl(index), ladder.headers, ladder.containerHint));
+        queueDirty = true;
+        if (player != null && mediaSource != null) {
+            if (position == C.POSITION_UNSET) {
+                position = player.getCurrentPosition();
+            }
+            queueIndex = 0;
+            player.stop(true);
+            prepareQueue();
+        }
+        sendBitrateChanged(ladder.getBitrate(index), ladder.getUrl(index), reason);
+    }
+
+    private void sendBitrateChanged(int bitrate, @Nullable String url, String reason) {
+        this.bitrate = bitrate;
+        metrics.onBitrateSwitch();
+        if (enableLogging) {
+            Log.i(LOGGING_LABEL, "bitrate " + bitrate + " (" + reason + ")" + (url == null ? "" : " " + url));
+        }
+        if (callback != null) {
+            callback.onBitrateChanged(bitrate, url, reason);
+        }
+    }
+
+    /**
+     * Pauses playback after {@code millis} or at the end of the current track, fading out over the last {@code fadeMillis}.
+     * Replaces the previous timer.
+     */
+    void setSleepTimer(long millis, boolean endOfTrack, long fadeMillis) {
+        if (enableLogging) {
+            Log.i(LOGGING_LABEL, "sleep timer " + millis + "ms" + (endOfTrack ? " or end of track" : "") + ", fade " + fadeMillis + "ms");
+        }
+        sleepTimer.set(millis, endOfTrack, fadeMillis,
+                player != null && player.getPlaybackState() == Player.STATE_READY ? player : null);
+    }
+
+    void cancelSleepTimer() {
+        sleepTimer.cancel();
+    }
+
+    /**
+     * Time-stretches playback in the audio sink, the player is not rebuilt. Kept for players built later, e.g. on a cold resume.
+     *
+     * @param speed 1 is normal speed
+     * @param pitch 1 keeps the pitch whatever the speed
+     */
+    void setSpeed(float speed, float pitch) {
+        if (speed <= 0 || pitch <= 0) {
+            Log.w(LOGGING_LABEL, "invalid speed " + speed + " or pitch " + pitch);
+            return;
+        }
+        if (enableLogging) {
+            Log.i(LOGGING_LABEL, "set speed " + speed + ", pitch " + pitch);
+        }
+        playbackParameters = new PlaybackParameters(speed, pitch);
+        metrics.onPlaying(status == PLAYER_STATUS_PLAYING, speed);
+        if (player != null) {
+            // reported through onPlaybackParametersChanged once the sink applies it
+            player.setPlaybackParameters(playbackParameters);
+        } else if (callback != null) {
+            callback.onSpeedChanged(speed, pitch);
+        }
+    }
+
+    /**
+     * Replaces the cue points of the current track, which are cleared when another track starts.
+     *
+     * @param positions in ms, a cue is reported with its index here
+     */
+    void setCuePoints(long[] positions) {
+        if (enableLogging) {
+            Log.i(LOGGING_LABEL, "set " + positions.length + " cue points");
+        }
+        cues.set(positions, player != null && player.getPlaybackState() == Player.STATE_READY ? player : null);
+    }
+
+    private void onSleepTimerFired(boolean endOfTrack) {
+        if (status != PLAYER_STATUS_PLAYING) {
+            return;
+        }
+        if (enableLogging) {
+            Log.i(LOGGING_LABEL, "sleep timer fired" + (endOfTrack ? " at end of track" : ""));
+        }
+        pausePlayer();
+        if (callback != null) {
+            callback.onSleepTimerFired();
+        }
+    }
+
+    /**
+     * Replaces the queue and starts playing it from {@code startIndex}.
+     */
+    void setQueue(List<String> urls, @Nullable List<HeaderSet> headers, int startIndex) {
+        queue.clear();
+        for (int i = 0; i < urls.size(); i++) {
+            queue.add(new MediaItem(urls.get(i), headers == null ? HeaderSet.EMPTY : headers.get(i)));
+        }
+        queueDirty = true;
+        ladder = null;
+        bitrate = Format.NO_VALUE;
+        cues.clear();
+        queueIndex = Math.max(0, Math.min(startIndex, queue.size() - 1));
+        position = C.POSITION_UNSET;
+        startMediaPlayer(null, null, null);
+    }
+
+    void enqueue(String url, HeaderSet headers) {
+        MediaItem item = new MediaItem(url, headers);
+        queue.add(item);
+        queueDirty = true;
+        if (mediaSource != null) {
+            mediaSource.addMediaSource(buildMediaSource(item));
+        }
+    }
+
+    void skipNext() {
+        if (player != null) {
+            int next = player.getNextWindowIndex();
+            if (next != C.INDEX_UNSET) {
+                cancelPendingSeek();
+                player.seekTo(next, C.TIME_UNSET);
+            }
+        } else if (queueIndex + 1 < queue.size()) {
+            jumpTo(queueIndex + 1);
+        }
+    }
+
+    void skipPrevious() {
+        if (player != null) {
+            int previous = player.getPreviousWindowIndex();
+            if (previous != C.INDEX_UNSET) {
+                cancelPendingSeek();
+                player.seekTo(previous, C.TIME_UNSET);
+            }
+        } else if (queueIndex > 0) {
+            jumpTo(queueIndex - 1);
+        }
+    }
+
+    void jumpTo(int index) {
+        if (index < 0 || index >= queue.size()) {
+            Log.w(LOGGING_LABEL, "queue index " + index + " out of range [0, " + queue.size() + ")");
+            return;
+        }
+        if (player != null) {
+            cancelPendingSeek();
+            player.seekTo(index, C.TIME_UNSET);
+        } else {
+            position = C.POSITION_UNSET;
+            onTrackIndexChanged(index);
+        }
+    }
+
+    private void onTrackIndexChanged(int index) {
+        if (index == queueIndex) {
+            return;
+        }
+        queueIndex = index;
+        durationSent = false;
+        cues.clear();
+        if (prefetcher != null && index < queue.size()) {
+            prefetcher.onItemStarted(queue.get(index).url);
+        }
+        if (enableLogging) {
+            Log.i(LOGGING_LABEL, "track index changed to " + index);
+        }
+        if (callback != null) {
+            callback.onTrackIndexChanged(index);
+        }
+        persistState();
+        if (player != null && player.getDuration() != C.TIME_UNSET) {
+            sendPlayerDuration();
+        }
+    }
+
     private void togglePlayer() {
         Log.i(LOGGING_LABEL, "toggle player position:" + position + " player null: " + (player == null) + " " + (player != null && player.getPlayWhenReady()));
         if (player == null && position == C.POSITION_UNSET) {
-            startMediaPlayer(null, null);
+            startMediaPlayer(null, null, null);
             return;
         }
         if (player != null && player.getPlayWhenReady()) {
@@ -365,13 +1090,23 @@ public class MediaPlayerService extends Service implements Runnable {
         autoResume = false;
     }
 
-    private void pausePlayer() {
-        releasePlayer();
+    void pausePlayer() {
+        resumeRequestedAt = 0;
+        if (warmPause && player != null) {
+            player.setPlayWhenReady(false);
+            stopPositionUpdate();
+            handler.removeCallbacks(idleReleaseRunnable);
+            handler.postDelayed(idleReleaseRunnable, warmPauseTimeout);
+        } else {
+            releasePlayer();
+        }
         sendPlayerStatus(PLAYER_STATUS_PAUSED, null);
-        Log.i(LOGGING_LABEL, "player is null after pause? " + (player == null));
+        if (enableLogging) {
+            Log.i(LOGGING_LABEL, "player is null after pause? " + (player == null));
+        }
     }
 
-    private void resumePlayer() {
+    void resumePlayer() {
         autoResume = false;
         if (audioFocus) {
             int result;
@@ -400,22 +1135,34 @@ public class MediaPlayerService extends Service implements Runnable {
     }
 
     private void doResumePlayer() {
+        handler.removeCallbacks(idleReleaseRunnable);
+        resumeRequestedAt = SystemClock.elapsedRealtime();
+        resumeWarm = player != null;
         if (enableLogging) {
-            Log.i(LOGGING_LABEL, "resume player");
+            Log.i(LOGGING_LABEL, "resume player " + (resumeWarm ? "warm" : "cold"));
+        }
+        if (resumeWarm) {
+            player.setPlayWhenReady(true);
+            startPositionUpdate();
+        } else {
+            if (ladder != null) {
+                switchRendition(ladder.select(bandwidthMeter.getBitrateEstimate()), BitrateLadder.REASON_RESUME);
+            }
+            startAutoPlay = true;
+            initializePlayer();
         }
-        initializePlayer();
         sendPlayerStatus(PLAYER_STATUS_PLAYING, null);
     }
 
-    private void changeTrack(String url, String headers) {
+    void changeTrack(String url, HeaderSet headers) {
         if (enableLogging) {
             Log.i(LOGGING_LABEL, "change url to " + url);
         }
         _stopPlayer();
-        startMediaPlayer(url, headers);
+        startMediaPlayer(url, headers, null);
     }
 
-    private void stopPlayer() {
+    void stopPlayer() {
         if (player != null) {
             if (enableLogging) {
                 Log.i(LOGGING_LABEL, "stop player");
@@ -426,11 +1173,14 @@ public class MediaPlayerService extends Service implements Runnable {
     }
 
     private void _stopPlayer() {
+        if (prefetcher != null) {
+            prefetcher.onItemFinished();
+        }
         releasePlayer();
         position = C.POSITION_UNSET;
     }
 
-    private void setVolume(float volume) {
+    void setVolume(float volume) {
         if (volume == -1) {
             return;
         }
@@ -444,58 +1194,302 @@ public class MediaPlayerService extends Service implements Runnable {
         }
     }
 
-    private void seekTo(int position) {
+    /**
+     * Seeks within the current item. Seeks arriving within {@link #SEEK_WINDOW_MILLIS} of the last applied one are coalesced
+     * into the latest target, which is reported as the position right away.
+     *
+     * @param dragging whether the user is still dragging, such seeks snap to the closest sync sample, the release seek is exact
+     */
+    void seekTo(int position, boolean dragging) {
         if (position >= 0) {
             if (enableLogging) {
-                Log.i(LOGGING_LABEL, "seek to " + position);
+                Log.i(LOGGING_LABEL, "seek to " + position + (dragging ? " while dragging" : ""));
             }
             if (player != null) {
-                player.seekTo(position);
+                metrics.onSeekRequested(dragging);
+                pendingSeekPosition = position;
+                pendingSeekExact = !dragging;
                 this.position = C.POSITION_UNSET;
+                if (callback != null) {
+                    callback.onPosition(position);
+                }
+                handler.removeCallbacks(seekRunnable);
+                long sinceLastSeek = SystemClock.elapsedRealtime() - lastSeekAt;
+                if (sinceLastSeek >= SEEK_WINDOW_MILLIS) {
+                    applyPendingSeek();
+                } else {
+                    handler.postDelayed(seekRunnable, SEEK_WINDOW_MILLIS - sinceLastSeek);
+                }
             } else {
                 this.position = position;
             }
         }
     }
 
+    private void applyPendingSeek() {
+        if (player == null || pendingSeekPosition == C.POSITION_UNSET) {
+            return;
+        }
+        lastSeekAt = SystemClock.elapsedRealtime();
+        metrics.onSeek();
+        player.setSeekParameters(pendingSeekExact ? SeekParameters.EXACT : SeekParameters.CLOSEST_SYNC);
+        playerReady = false;
+        if (ladder != null && pendingSeekExact && player.getCurrentWindowIndex() == 0) {
+            // the seek drops the buffer anyway, so it may as well land on another rendition
+            int index = ladder.select(bandwidthMeter.getBitrateEstimate());
+            if (index != ladder.current) {
+                position = pendingSeekPosition;
+                pendingSeekPosition = C.POSITION_UNSET;
+                switchRendition(index, BitrateLadder.REASON_SEEK);
+                return;
+            }
+        }
+        player.seekTo(pendingSeekPosition);
+        pendingSeekPosition = C.POSITION_UNSET;
+    }
+
+    private void cancelPendingSeek() {
+        handler.removeCallbacks(seekRunnable);
+        pendingSeekPosition = C.POSITION_UNSET;
+    }
+
     private void initializePlayer() {
-        bufferedPercent = 0;
+        positionTicker.reset();
+        cancelPendingSeek();
         if (player == null) {
-            player = ExoPlayerFactory.newSimpleInstance(this, new DefaultRenderersFactory(this), new DefaultTrackSelector());
+            // built on the playback thread, so the player calls back on its looper
+            player = buildPlayer(PlayerSession.PRIORITY_HIGH);
+            livePolicy = bufferingPolicy;
             player.addListener(new PlayerEventListener());
-            player.setPlayWhenReady(startAutoPlay);
+            player.addAnalyticsListener(new AdaptiveBitrateListener());
+            player.setPlaybackParameters(playbackParameters);
+            metrics.onPlayerCreated();
+        } else {
+            // drop the previous timeline, so the seek below is applied to the new queue
+            player.stop(true);
         }
-        boolean resetPosition = position == C.POSITION_UNSET;
-        if (position != C.POSITION_UNSET) {
-            player.seekTo(position);
-            position = C.POSITION_UNSET;
+        player.setPlayWhenReady(startAutoPlay);
+        metrics.onPlaybackRequested();
+        prepareQueue();
+        if (prefetcher != null) {
+            prefetcher.onItemStarted(queue.get(queueIndex).url);
+        }
+        startPositionUpdate();
+    }
+
+    /**
+     * Prepares the stopped player with the queue at {@link #queueIndex} and {@link #position}.
+     */
+    private void prepareQueue() {
+        handler.removeCallbacks(stallSwitchRunnable);
+        cues.disarm();
+        waitingForNetwork = false;
+        playerReady = false;
+        mediaSource = new ConcatenatingMediaSource();
+        for (MediaItem item : queue) {
+            mediaSource.addMediaSource(buildMediaSource(item));
+        }
+        player.seekTo(queueIndex, position == C.POSITION_UNSET ? C.TIME_UNSET : position);
+        position = C.POSITION_UNSET;
+        player.prepare(mediaSource, false, false);
+    }
+
+    /**
+     * Builds a player on the playback thread, so it calls back on its looper, sharing the allocator and bandwidth meter.
+     */
+    private SimpleExoPlayer buildPlayer(int priority) {
+        RenderersFactory renderersFactory = audioOnly ? new AudioRenderersFactory(this) : new DefaultRenderersFactory(this);
+        LoadControl loadControl = bufferingPolicy.createLoadControl(allocator, getTargetBufferBytes(bufferingPolicy, priority));
+        return ExoPlayerFactory.newSimpleInstance(this, renderersFactory, new DefaultTrackSelector(), loadControl, null, bandwidthMeter);
+    }
+
+    /**
+     * A player stops buffering once the shared allocator holds its target, so under a memory budget lower priorities yield
+     * first: a high priority player may fill the whole budget, a normal one half of it and a low one a quarter.
+     */
+    private int getTargetBufferBytes(BufferingPolicy policy, int priority) {
+        long budget = memoryBudget;
+        if (budget == C.LENGTH_UNSET) {
+            return policy.targetBufferBytes;
+        }
+        int share = (int) Math.min(Integer.MAX_VALUE, budget >> (PlayerSession.PRIORITY_HIGH - priority));
+        return policy.targetBufferBytes == C.LENGTH_UNSET ? share : Math.min(policy.targetBufferBytes, share);
+    }
+
+    /**
+     * @param bytes buffer memory of all players together, {@link C#LENGTH_UNSET} removes the budget; takes effect as players
+     *              are built
+     */
+    void setMemoryBudget(long bytes) {
+        memoryBudget = bytes;
+    }
+
+    /**
+     * Plays {@code url} on secondary player {@code playerId}, building it on first use or when its priority changed.
+     */
+    void playSession(int playerId, String url, float volume, int position, HeaderSet headers, @Nullable String containerHint, int priority) {
+        PlayerSession session = sessions.get(playerId);
+        if (session != null && session.priority != priority) {
+            session.release();
+            session = null;
+        }
+        if (session == null) {
+            session = new PlayerSession(playerId, priority, buildPlayer(priority), sessionListener);
+            sessions.put(playerId, session);
+            metrics.onPlayerCreated();
+        }
+        if (enableLogging) {
+            Log.i(LOGGING_LABEL, "play " + url + " on player " + playerId);
+        }
+        session.play(buildMediaSource(new MediaItem(url, headers, containerHint)), position, volume);
+    }
+
+    void pauseSession(int playerId) {
+        PlayerSession session = sessions.get(playerId);
+        if (session != null) {
+            session.pause();
+        }
+    }
+
+    void resumeSession(int playerId) {
+        PlayerSession session = sessions.get(playerId);
+        if (session != null) {
+            session.resume();
+        }
+    }
+
+    void stopSession(int playerId) {
+        PlayerSession session = sessions.get(playerId);
+        if (session != null) {
+            session.stop();
+        }
+    }
+
+    void seekSession(int playerId, int position) {
+        PlayerSession session = sessions.get(playerId);
+        if (session != null && position >= 0) {
+            session.seekTo(position);
         }
-        String userAgent = this.headers != null && this.headers.containsKey("User-Agent") ? this.headers.get("User-Agent") : DEFAULT_USER_AGENT;
-        Uri uri = Uri.parse(this.url);
+    }
+
+    void setSessionVolume(int playerId, float volume) {
+        PlayerSession session = sessions.get(playerId);
+        if (session != null) {
+            session.setVolume(volume);
+        }
+    }
+
+    /**
+     * Releases secondary player {@code playerId} and its buffers.
+     */
+    void releaseSession(int playerId) {
+        PlayerSession session = sessions.get(playerId);
+        if (session != null) {
+            session.release();
+            sessions.remove(playerId);
+        }
+    }
+
+    private MediaSource buildMediaSource(MediaItem item) {
+        HeaderSet headers = item.headers;
+        Uri uri = Uri.parse(item.url);
         DataSource.Factory dataSourceFactory;
+        String cacheKey = null;
         if("http".equals(uri.getScheme()) || "https".equals(uri.getScheme())) {
-            dataSourceFactory = new DefaultHttpDataSourceFactory(userAgent);
-            if(headers != null) {
-                ((DefaultHttpDataSourceFactory)dataSourceFactory).getDefaultRequestProperties().set(headers);
+            HttpDataSource.Factory httpDataSourceFactory = httpStack.getFactory(headers);
+            if (mediaCache != null) {
+                dataSourceFactory = mediaCache.createDataSourceFactory(httpDataSourceFactory);
+                cacheKey = mediaCache.buildCacheKey(uri);
+            } else {
+                dataSourceFactory = httpDataSourceFactory;
+            }
+            if (downloadQueue != null || DownloadQueue.exists(this)) {
+                String key = DownloadQueue.buildKey(item.url);
+                if (getDownloadQueue().contains(key)) {
+                    // downloaded bytes are read from disk, missing ones are streamed
+                    dataSourceFactory = getDownloadQueue().createDataSourceFactory(dataSourceFactory);
+                    cacheKey = key;
+                }
             }
         } else {
-            dataSourceFactory = new DefaultDataSourceFactory(this, userAgent);
+            dataSourceFactory = new DefaultDataSourceFactory(this, headers.getUserAgent(DEFAULT_USER_AGENT));
         }
-        ExtractorMediaSource mediaSource = new ExtractorMediaSource.Factory(dataSourceFactory)
-                .setExtractorsFactory(new DefaultExtractorsFactory())
+        // adaptive sources pick their variants with the player's track selector, fed by the shared bandwidth meter
+        switch (inferContentType(item.containerHint, uri)) {
+            case C.TYPE_HLS:
+                return new HlsMediaSource.Factory(dataSourceFactory)
+                        .setLoadErrorHandlingPolicy(loadErrorPolicy)
+                        .createMediaSource(uri);
+            case C.TYPE_DASH:
+                return new DashMediaSource.Factory(new DefaultDashChunkSource.Factory(dataSourceFactory), dataSourceFactory)
+                        .setLoadErrorHandlingPolicy(loadErrorPolicy)
+                        .createMediaSource(uri);
+        }
+        return new ExtractorMediaSource.Factory(dataSourceFactory)
+                .setExtractorsFactory(audioOnly ? AudioExtractorsFactory.of(item.containerHint, uri) : new DefaultExtractorsFactory())
+                .setLoadErrorHandlingPolicy(loadErrorPolicy)
+                .setCustomCacheKey(cacheKey)
                 .createMediaSource(uri);
-        player.prepare(mediaSource, resetPosition, false);
-        startPositionUpdate();
+    }
+
+    /**
+     * @param hint a container hint names progressive media, unless it is {@code hls}, {@code dash}, a manifest extension or
+     *             MIME type
+     * @return {@link C#TYPE_HLS}, {@link C#TYPE_DASH} or {@link C#TYPE_OTHER} for progressive media
+     */
+    private static int inferContentType(@Nullable String hint, Uri uri) {
+        if (!TextUtils.isEmpty(hint)) {
+            switch (hint.toLowerCase(Locale.US)) {
+                case "hls":
+                case "m3u8":
+                case ".m3u8":
+                case "application/x-mpegurl":
+                case "application/vnd.apple.mpegurl":
+                    return C.TYPE_HLS;
+                case "dash":
+                case "mpd":
+                case ".mpd":
+                case "application/dash+xml":
+                    return C.TYPE_DASH;
+                default:
+                    return C.TYPE_OTHER;
+            }
+        }
+        int type = Util.inferContentType(uri);
+        return type == C.TYPE_HLS || type == C.TYPE_DASH ? type : C.TYPE_OTHER;
+    }
+
+    /**
+     * Prepares the player that failed offline again, it resumes from the position it failed at.
+     */
+    private void onNetworkAvailable() {
+        if (!waitingForNetwork || player == null || mediaSource == null) {
+            return;
+        }
+        if (enableLogging) {
+            Log.i(LOGGING_LABEL, "network is back, preparing the player again");
+        }
+        waitingForNetwork = false;
+        metrics.onErrorRecovery();
+        player.prepare(mediaSource, false, false);
     }
 
     private void releasePlayer() {
+        waitingForNetwork = false;
+        handler.removeCallbacks(idleReleaseRunnable);
+        handler.removeCallbacks(stallSwitchRunnable);
         if(player != null) {
+            sleepTimer.onPlayerReleased();
+            cues.disarm();
             updateStartPosition();
+            cancelPendingSeek();
             stopPositionUpdate();
             player.setPlayWhenReady(false);
             player.stop();
             player.release();
             player = null;
+            livePolicy = null;
+            mediaSource = null;
         }
     }
 
@@ -504,23 +1498,29 @@ public class MediaPlayerService extends Service implements Runnable {
     private void updateStartPosition() {
         if (player != null) {
             startAutoPlay = player.getPlayWhenReady();
-            position = Math.max(0, player.getContentPosition());
+            position = pendingSeekPosition != C.POSITION_UNSET ? pendingSeekPosition : Math.max(0, player.getContentPosition());
+            queueIndex = player.getCurrentWindowIndex();
         }
     }
 
-    public void startMediaPlayer(String url, String headers) {
+    public void startMediaPlayer(String url, HeaderSet headers, @Nullable String containerHint) {
         durationSent = false;
         autoResume = false;
         startAutoPlay = true;
         if (!TextUtils.isEmpty(url)) {
-            this.url = url;
-            this.headers = parseHeaders(headers);
+            queue.clear();
+            queue.add(new MediaItem(url, headers, containerHint));
+            queueIndex = 0;
+            queueDirty = true;
+            ladder = null;
+            bitrate = Format.NO_VALUE;
+            cues.clear();
         }
-        if (this.url == null) {
+        if (queue.isEmpty()) {
             return;
         }
         if (enableLogging) {
-            Log.i(LOGGING_LABEL, "start media player with url " + this.url);
+            Log.i(LOGGING_LABEL, "start media player with url " + queue.get(queueIndex).url + " at queue index " + queueIndex);
         }
 
         try {
@@ -533,101 +1533,105 @@ public class MediaPlayerService extends Service implements Runnable {
 
     private void sendPlayerStatus(int status, String message) {
         this.status = status;
-        remoteView.setImageViewResource(R.id.play_btn, status == PLAYER_STATUS_PLAYING ? android.R.drawable.ic_media_pause : android.R.drawable.ic_media_play);
-        notificationManager.notify(notificationId, notificationCompatBuilder.build());
-        Intent intent = new Intent();
-        intent.setAction(SERVICE_TO_BROADCAST);
-        intent.putExtra(ACTION_TYPE_KEY, ACTION_TYPE_STATUS);
-        intent.putExtra(PLAYER_STATUS_KEY, status);
-        intent.putExtra(PLAYER_STATUS_MESSAGE_KEY, message);
-        sendBroadcast(intent);
+        metrics.onPlaying(status == PLAYER_STATUS_PLAYING, playbackParameters.speed);
+        notificationRenderer.setPlaying(status == PLAYER_STATUS_PLAYING);
+        handler.removeCallbacks(persistRunnable);
+        persistState();
+        if (status == PLAYER_STATUS_PLAYING) {
+            handler.postDelayed(persistRunnable, PlaybackStateStore.SAVE_INTERVAL);
+        }
+        if (callback != null) {
+            callback.onStatus(status, message);
+        }
+    }
+
+    private void sendResumeLatency(long latency, boolean warm) {
+        if (enableLogging) {
+            Log.i(LOGGING_LABEL, (warm ? "warm" : "cold") + " resume latency " + latency + "ms");
+        }
+        if (callback != null) {
+            callback.onResumeLatency(latency, warm);
+        }
     }
 
     private void sendPlayerDuration() {
         if(durationSent || player == null) {
             return;
         }
-        Intent intent = new Intent();
-        intent.setAction(SERVICE_TO_BROADCAST);
-        intent.putExtra(ACTION_TYPE_KEY, ACTION_TYPE_DURATION);
-        intent.putExtra(PLAYER_DURATION_KEY, player.getDuration());
-        sendBroadcast(intent);
+        if (callback != null) {
+            callback.onDuration(player.getDuration());
+        }
         durationSent = true;
     }
 
     private void startPositionUpdate() {
-        handler.post(this);
+        positionTicker.start();
     }
 
     private void stopPositionUpdate() {
-        handler.removeCallbacksAndMessages(null);
+        positionTicker.stop();
     }
 
     @Override
-    public void run() {
-        if (player != null && player.getPlayWhenReady()) {
-            Intent intent = new Intent();
-            intent.setAction(SERVICE_TO_BROADCAST);
-            intent.putExtra(ACTION_TYPE_KEY, ACTION_TYPE_POSITION);
-            intent.putExtra(PLAYER_POSITION_KEY, player.getCurrentPosition());
-            sendBroadcast(intent);
-            if(player.getBufferedPercentage() != bufferedPercent) {
-                bufferedPercent = player.getBufferedPercentage();
-                Intent bufferingIntent = new Intent();
-                bufferingIntent.setAction(SERVICE_TO_BROADCAST);
-                bufferingIntent.putExtra(ACTION_TYPE_KEY, ACTION_TYPE_BUFFER);
-                bufferingIntent.putExtra(PLAYER_BUFFER_KEY, bufferedPercent);
-                sendBroadcast(bufferingIntent);
-            }
-            handler.postDelayed(this, positionNotifyInterval);
-        } else {
-            stopPositionUpdate();
-        }
+    public boolean isTicking() {
+        return player != null && player.getPlayWhenReady();
     }
 
-    private static Class getMainActivityClass(Context context) {
+    @Override
+    public long getPosition() {
+        return pendingSeekPosition != C.POSITION_UNSET ? pendingSeekPosition : player.getCurrentPosition();
+    }
+
+    @Override
+    public int getBufferedPercent() {
+        return player.getBufferedPercentage();
+    }
+
+    private static ComponentName getMainActivityComponent(Context context) {
         String packageName = context.getPackageName();
         Intent launchIntent = context.getPackageManager().getLaunchIntentForPackage(packageName);
         //noinspection ConstantConditions
-        String className = launchIntent.getComponent().getClassName();
-        try {
-            return Class.forName(className);
-        } catch (ClassNotFoundException e) {
-            Log.e(LOGGING_LABEL, "failed to get MainActivity", e);
-            return null;
-        }
-    }
-
-    private static Map<String, String> parseHeaders(String raw) {
-        Map<String, String> result = new HashMap<>();
-        if(TextUtils.isEmpty(raw)) {
-            return result;
-        }
-        try {
-            JSONObject json = new JSONObject(raw);
-            Iterator<String> keys = json.keys();
-            while(keys.hasNext()) {
-                String key = keys.next();
-                String value = json.getString(key);
-                if(TextUtils.isEmpty(value)) {
-                    continue;
-                }
-                result.put(key, value);
-            }
-        } catch (JSONException e) {
-            Log.e(LOGGING_LABEL, "failed to parse headers", e);
-        }
-        return result;
+        return launchIntent.getComponent();
     }
 
     private class PlayerEventListener implements Player.EventListener {
         @Override
         public void onPlayerError(ExoPlaybackException error) {
+            if (error.type == ExoPlaybackException.TYPE_SOURCE && ResilientLoadErrorPolicy.isTransient(error.getSourceException())
+                    && !connectivity.isConnected()) {
+                // keep the idle player and its position instead of reporting an error the user can do nothing about
+                Log.w(LOGGING_LABEL, "lost the network while playing, waiting for it", error);
+                waitingForNetwork = true;
+                return;
+            }
             Log.e(LOGGING_LABEL, "error occurred while playing", error);
             _stopPlayer();
             sendPlayerStatus(PLAYER_STATUS_ERROR, error.getMessage());
         }
 
+        @Override
+        public void onPositionDiscontinuity(int reason) {
+            onTrackIndexChanged(player.getCurrentWindowIndex());
+            if ((reason == Player.DISCONTINUITY_REASON_SEEK || reason == Player.DISCONTINUITY_REASON_SEEK_ADJUSTMENT) && cues.size() > 0) {
+                // cues between the old and the new position are not crossed, the ones after the new position are due again
+                cues.arm(player);
+            }
+        }
+
+        @Override
+        public void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {
+            if (callback != null) {
+                callback.onSpeedChanged(playbackParameters.speed, playbackParameters.pitch);
+            }
+        }
+
+        @Override
+        public void onTimelineChanged(Timeline timeline, @Nullable Object manifest, int reason) {
+            if (!timeline.isEmpty()) {
+                onTrackIndexChanged(player.getCurrentWindowIndex());
+            }
+        }
+
         @Override
         public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
             switch(playbackState) {
@@ -635,26 +1639,70 @@ public class MediaPlayerService extends Service implements Runnable {
                     if(enableLogging) {
                         Log.i(LOGGING_LABEL, "player state idle");
                     }
+                    metrics.onIdle();
                     break;
                 case Player.STATE_ENDED:
                     if(enableLogging) {
                         Log.i(LOGGING_LABEL, "player state end");
                     }
+                    metrics.onIdle();
                     sendPlayerStatus(PLAYER_STATUS_COMPLETED, null);
                     _stopPlayer();
+                    onTrackIndexChanged(0);
                     break;
                 case Player.STATE_READY:
                     if(enableLogging) {
                         Log.i(LOGGING_LABEL, "player state ready");
                     }
+                    metrics.onReady(playWhenReady);
+                    if (restoreRequestedAt != 0) {
+                        long latency = SystemClock.elapsedRealtime() - restoreRequestedAt;
+                        restoreRequestedAt = 0;
+                        metrics.onRestoreReady(latency);
+                        if (enableLogging) {
+                            Log.i(LOGGING_LABEL, "restored session ready after " + latency + "ms");
+                        }
+                    }
+                    playerReady = true;
+                    sleepTimer.onPlayerReady(player);
+                    if (!cues.isArmed() && cues.size() > 0) {
+                        cues.arm(player);
+                    }
+                    handler.removeCallbacks(stallSwitchRunnable);
                     sendPlayerDuration();
+                    if (playWhenReady && resumeRequestedAt != 0) {
+                        sendResumeLatency(SystemClock.elapsedRealtime() - resumeRequestedAt, resumeWarm);
+                        resumeRequestedAt = 0;
+                    }
                     break;
                 case Player.STATE_BUFFERING:
                     if(enableLogging) {
                         Log.i(LOGGING_LABEL, "player state buffering");
                     }
+                    metrics.onBuffering(playWhenReady);
+                    if (playWhenReady && playerReady && ladder != null) {
+                        // a short stall is cheaper to wait out than re-preparing, a long one steps down the ladder
+                        handler.removeCallbacks(stallSwitchRunnable);
+                        handler.postDelayed(stallSwitchRunnable, BitrateLadder.STALL_SWITCH_DELAY);
+                    }
                     break;
             }
         }
     }
+
+    /**
+     * Reports the bitrate of the audio HLS and DASH sources switch to, ladders report their own switches.
+     */
+    private class AdaptiveBitrateListener implements AnalyticsListener {
+        @Override
+        public void onDownstreamFormatChanged(EventTime eventTime, MediaSourceEventListener.MediaLoadData mediaLoadData) {
+            Format format = mediaLoadData.trackFormat;
+            if (ladder != null || format == null || format.bitrate == Format.NO_VALUE || format.bitrate == bitrate
+                    || (mediaLoadData.trackType != C.TRACK_TYPE_AUDIO && mediaLoadData.trackType != C.TRACK_TYPE_DEFAULT)) {
+                return;
+            }
+            sendBitrateChanged(format.bitrate, null,
+                    bitrate == Format.NO_VALUE ? BitrateLadder.REASON_INITIAL : BitrateLadder.REASON_ADAPTIVE);
+        }
+    }
 }
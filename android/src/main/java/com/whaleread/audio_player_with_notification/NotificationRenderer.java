@@ -0,0 +1,205 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.os.Handler;
+import android.text.TextUtils;
+import android.widget.RemoteViews;
+
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Posts the player notification only when its visible state changes.
+ * <p>
+ * Setters record the desired state, which is diffed against what was last posted. Changes within one frame are coalesced
+ * into a single {@link NotificationManager#notify} call, since each post parcels the whole {@link RemoteViews} to SystemUI.
+ */
+class NotificationRenderer {
+    static final long COALESCE_MILLIS = 16;
+
+    private final Handler handler;
+    private final NotificationManager notificationManager;
+    private final int notificationId;
+    private RemoteViews remoteView;
+    private NotificationCompat.Builder builder;
+
+    private String title;
+    private String subtitle;
+    private Integer titleColor;
+    private Integer subtitleColor;
+    private Integer backgroundColor;
+    private boolean playing;
+
+    private String postedTitle;
+    private String postedSubtitle;
+    private Integer postedTitleColor;
+    private Integer postedSubtitleColor;
+    private Integer postedBackgroundColor;
+    private boolean postedPlaying;
+
+    private boolean scheduled = false;
+    private volatile long posts = 0;
+    private volatile long suppressed = 0;
+
+    private final Runnable renderRunnable = this::render;
+
+    NotificationRenderer(Handler handler, NotificationManager notificationManager, int notificationId) {
+        this.handler = handler;
+        this.notificationManager = notificationManager;
+        this.notificationId = notificationId;
+    }
+
+    /**
+     * Applies the whole desired state to a freshly created notification view.
+     *
+     * @return the notification to post, e.g. through {@code startForeground}
+     */
+    Notification attach(RemoteViews remoteView, NotificationCompat.Builder builder) {
+        this.remoteView = remoteView;
+        this.builder = builder;
+        handler.removeCallbacks(renderRunnable);
+        scheduled = false;
+        if (title != null) {
+            remoteView.setTextViewText(R.id.title, title);
+        }
+        if (subtitle != null) {
+            remoteView.setTextViewText(R.id.subtitle, subtitle);
+        }
+        if (titleColor != null) {
+            remoteView.setTextColor(R.id.title, titleColor);
+        }
+        if (subtitleColor != null) {
+            remoteView.setTextColor(R.id.subtitle, subtitleColor);
+        }
+        if (backgroundColor != null) {
+            remoteView.setInt(R.id.container, "setBackgroundColor", backgroundColor);
+        }
+        remoteView.setImageViewResource(R.id.play_btn, playIcon(playing));
+        markPosted();
+        posts++;
+        return builder.build();
+    }
+
+    /**
+     * null leaves the corresponding text unchanged
+     */
+    void setText(@Nullable String title, @Nullable String subtitle) {
+        if (title != null) {
+            this.title = title;
+        }
+        if (subtitle != null) {
+            this.subtitle = subtitle;
+        }
+        invalidate();
+    }
+
+    /**
+     * null leaves the corresponding color unchanged
+     */
+    void setColors(@Nullable Integer titleColor, @Nullable Integer subtitleColor, @Nullable Integer backgroundColor) {
+        if (titleColor != null) {
+            this.titleColor = titleColor;
+        }
+        if (subtitleColor != null) {
+            this.subtitleColor = subtitleColor;
+        }
+        if (backgroundColor != null) {
+            this.backgroundColor = backgroundColor;
+        }
+        invalidate();
+    }
+
+    void setPlaying(boolean playing) {
+        this.playing = playing;
+        invalidate();
+    }
+
+    void release() {
+        handler.removeCallbacks(renderRunnable);
+        scheduled = false;
+        remoteView = null;
+        builder = null;
+    }
+
+    /**
+     * @return {@code posts} sent to the notification manager and {@code suppressed} updates that were unchanged or coalesced
+     */
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("posts", posts);
+        stats.put("suppressed", suppressed);
+        return stats;
+    }
+
+    private void invalidate() {
+        if (remoteView == null || scheduled || !isDirty()) {
+            suppressed++;
+            return;
+        }
+        scheduled = true;
+        handler.postDelayed(renderRunnable, COALESCE_MILLIS);
+    }
+
+    private boolean isDirty() {
+        return !TextUtils.equals(title, postedTitle)
+                || !TextUtils.equals(subtitle, postedSubtitle)
+                || !equals(titleColor, postedTitleColor)
+                || !equals(subtitleColor, postedSubtitleColor)
+                || !equals(backgroundColor, postedBackgroundColor)
+                || playing != postedPlaying;
+    }
+
+    private void render() {
+        scheduled = false;
+        if (remoteView == null) {
+            return;
+        }
+        if (!isDirty()) {
+            // changes within the window cancelled each other out
+            suppressed++;
+            return;
+        }
+        if (!TextUtils.equals(title, postedTitle)) {
+            remoteView.setTextViewText(R.id.title, title);
+        }
+        if (!TextUtils.equals(subtitle, postedSubtitle)) {
+            remoteView.setTextViewText(R.id.subtitle, subtitle);
+        }
+        if (!equals(titleColor, postedTitleColor)) {
+            remoteView.setTextColor(R.id.title, titleColor);
+        }
+        if (!equals(subtitleColor, postedSubtitleColor)) {
+            remoteView.setTextColor(R.id.subtitle, subtitleColor);
+        }
+        if (!equals(backgroundColor, postedBackgroundColor)) {
+            remoteView.setInt(R.id.container, "setBackgroundColor", backgroundColor);
+        }
+        if (playing != postedPlaying) {
+            remoteView.setImageViewResource(R.id.play_btn, playIcon(playing));
+        }
+        markPosted();
+        posts++;
+        notificationManager.notify(notificationId, builder.build());
+    }
+
+    private void markPosted() {
+        postedTitle = title;
+        postedSubtitle = subtitle;
+        postedTitleColor = titleColor;
+        postedSubtitleColor = subtitleColor;
+        postedBackgroundColor = backgroundColor;
+        postedPlaying = playing;
+    }
+
+    private static int playIcon(boolean playing) {
+        return playing ? android.R.drawable.ic_media_pause : android.R.drawable.ic_media_play;
+    }
+
+    private static boolean equals(Integer a, Integer b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,303 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Playback performance metrics of the service.
+ * <p>
+ * Time to first audio is split into dns, connect, first byte, prepare (first byte to ready) and ready (request to ready).
+ * Player state callbacks arrive on the playback thread, network callbacks on OkHttp and loader threads; all of them only
+ * touch {@link Histogram}s and atomics, so {@link #snapshot()} can be taken at any time.
+ */
+class PlaybackMetrics {
+    /**
+     * transfers smaller than this say more about latency than bandwidth
+     */
+    private static final long MIN_BANDWIDTH_BYTES = 64 * 1024;
+    /**
+     * playing stretches shorter than this are dominated by prepare and UI work
+     */
+    private static final long MIN_CPU_SAMPLE_MILLIS = 5000;
+
+    private final Histogram ttfaDns = new Histogram();
+    private final Histogram ttfaConnect = new Histogram();
+    private final Histogram ttfaFirstByte = new Histogram();
+    private final Histogram ttfaPrepare = new Histogram();
+    private final Histogram ttfaReady = new Histogram();
+    private final Histogram stalls = new Histogram();
+    private final Histogram seekToReady = new Histogram();
+    private final Histogram bandwidthKbps = new Histogram();
+    private final Histogram seeksPerDrag = new Histogram();
+    private final Histogram requestsPerDrag = new Histogram();
+    private final Histogram restoreToReady = new Histogram();
+    private final Histogram commandMicros = new Histogram();
+    private final Histogram commandPostMicros = new Histogram();
+    private final Histogram cpuPermilleNormal = new Histogram();
+    private final Histogram cpuPermilleStretched = new Histogram();
+    private final AtomicLong networkRequests = new AtomicLong();
+    private final AtomicLong stallMillis = new AtomicLong();
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+    private final AtomicLong rebuilds = new AtomicLong();
+    private final AtomicLong bitrateSwitches = new AtomicLong();
+    private final AtomicLong loadRetries = new AtomicLong();
+    private final AtomicLong loadFailures = new AtomicLong();
+    private final AtomicLong errorRecoveries = new AtomicLong();
+
+    /**
+     * elapsed realtime nanos of the pending playback request, 0 once it became ready
+     */
+    private volatile long requestedAt = 0;
+    private final AtomicLong firstByteAt = new AtomicLong();
+    private final Map<Object, long[]> transfers = new ConcurrentHashMap<>();
+
+    // playback thread only
+    private long seekStartedAt = 0;
+    private long stallStartedAt = 0;
+    /**
+     * network requests counted when the current drag started, -1 outside of a drag
+     */
+    private long dragStartRequests = -1;
+    private long dragSeeks = 0;
+    private boolean dragReleased = false;
+    /**
+     * elapsed realtime the current playing stretch started at, 0 while not playing
+     */
+    private long playingSince = 0;
+    private long playingCpuSince = 0;
+    private float playingSpeed = 1;
+
+    void onPlayerCreated() {
+        rebuilds.incrementAndGet();
+    }
+
+    /**
+     * A transient load error to be retried in place, called on loader threads.
+     */
+    void onLoadRetry() {
+        loadRetries.incrementAndGet();
+    }
+
+    /**
+     * A load error surfaced to the player, fatal or out of retries.
+     */
+    void onLoadFailed() {
+        loadFailures.incrementAndGet();
+    }
+
+    /**
+     * A player that failed offline prepared again.
+     */
+    void onErrorRecovery() {
+        errorRecoveries.incrementAndGet();
+    }
+
+    /**
+     * Samples process CPU time over each stretch of playing at one speed, so the cost of the time-stretch can be compared
+     * with playing at normal speed. Called when playback starts or stops and when the speed changes.
+     */
+    void onPlaying(boolean playing, float speed) {
+        long now = SystemClock.elapsedRealtime();
+        long cpu = Process.getElapsedCpuTime();
+        if (playingSince != 0) {
+            long elapsed = now - playingSince;
+            if (elapsed >= MIN_CPU_SAMPLE_MILLIS) {
+                (playingSpeed == 1 ? cpuPermilleNormal : cpuPermilleStretched).record((cpu - playingCpuSince) * 1000 / elapsed);
+            }
+            playingSince = 0;
+        }
+        if (playing) {
+            playingSince = now;
+            playingCpuSince = cpu;
+            playingSpeed = speed;
+        }
+    }
+
+    void onBitrateSwitch() {
+        bitrateSwitches.incrementAndGet();
+    }
+
+    void onPlaybackRequested() {
+        firstByteAt.set(0);
+        requestedAt = SystemClock.elapsedRealtimeNanos();
+        seekStartedAt = 0;
+        stallStartedAt = 0;
+    }
+
+    /**
+     * Counts seeks of a scrubber drag, which ends with a seek that is not {@code dragging}. Network requests of the drag are
+     * counted until the player is ready after the release.
+     */
+    void onSeekRequested(boolean dragging) {
+        if (dragging && (dragStartRequests < 0 || dragReleased)) {
+            dragStartRequests = networkRequests.get();
+            dragSeeks = 0;
+            dragReleased = false;
+        }
+        if (dragStartRequests >= 0) {
+            dragSeeks++;
+            if (!dragging) {
+                dragReleased = true;
+            }
+        }
+    }
+
+    void onSeek() {
+        seekStartedAt = SystemClock.elapsedRealtimeNanos();
+        stallStartedAt = 0;
+    }
+
+    void onBuffering(boolean playWhenReady) {
+        if (!playWhenReady) {
+            stallStartedAt = 0;
+        } else if (requestedAt == 0 && seekStartedAt == 0 && stallStartedAt == 0) {
+            stallStartedAt = SystemClock.elapsedRealtimeNanos();
+        }
+    }
+
+    void onReady(boolean playWhenReady) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        long requestedAt = this.requestedAt;
+        if (requestedAt != 0) {
+            // a prepare without auto play does not produce audio, so it is not timed
+            if (playWhenReady) {
+                ttfaReady.record(toMillis(now - requestedAt));
+                long firstByteAt = this.firstByteAt.get();
+                if (firstByteAt != 0) {
+                    ttfaPrepare.record(toMillis(now - firstByteAt));
+                }
+            }
+            this.requestedAt = 0;
+        }
+        if (seekStartedAt != 0) {
+            seekToReady.record(toMillis(now - seekStartedAt));
+            seekStartedAt = 0;
+        }
+        if (dragReleased) {
+            seeksPerDrag.record(dragSeeks);
+            requestsPerDrag.record(networkRequests.get() - dragStartRequests);
+            dragStartRequests = -1;
+            dragReleased = false;
+        }
+        if (stallStartedAt != 0) {
+            long stall = toMillis(now - stallStartedAt);
+            stalls.record(stall);
+            stallMillis.addAndGet(stall);
+            stallStartedAt = 0;
+        }
+    }
+
+    /**
+     * @param millis from restoring a persisted session after a restart to its player being ready
+     */
+    void onRestoreReady(long millis) {
+        restoreToReady.record(millis);
+    }
+
+    /**
+     * @param nanos a command ran on the playback thread, this is what it cost the main thread before commands were posted
+     */
+    void onCommand(long nanos) {
+        commandMicros.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * @param nanos the calling thread spent submitting a command
+     */
+    void onCommandPosted(long nanos) {
+        commandPostMicros.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    void onIdle() {
+        requestedAt = 0;
+        seekStartedAt = 0;
+        stallStartedAt = 0;
+    }
+
+    void onDns(long nanos) {
+        if (requestedAt != 0 && firstByteAt.get() == 0) {
+            ttfaDns.record(toMillis(nanos));
+        }
+    }
+
+    void onConnect(long nanos) {
+        if (requestedAt != 0 && firstByteAt.get() == 0) {
+            ttfaConnect.record(toMillis(nanos));
+        }
+    }
+
+    void onResponseHeaders() {
+        long requestedAt = this.requestedAt;
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (requestedAt != 0 && firstByteAt.compareAndSet(0, now)) {
+            ttfaFirstByte.record(toMillis(now - requestedAt));
+        }
+    }
+
+    void onTransferStart(Object source) {
+        networkRequests.incrementAndGet();
+        transfers.put(source, new long[]{SystemClock.elapsedRealtimeNanos(), 0});
+    }
+
+    void onBytesTransferred(Object source, int bytes) {
+        bytesDownloaded.addAndGet(bytes);
+        long[] transfer = transfers.get(source);
+        if (transfer != null) {
+            transfer[1] += bytes;
+        }
+    }
+
+    void onTransferEnd(Object source) {
+        long[] transfer = transfers.remove(source);
+        if (transfer == null || transfer[1] < MIN_BANDWIDTH_BYTES) {
+            return;
+        }
+        long elapsed = SystemClock.elapsedRealtimeNanos() - transfer[0];
+        if (elapsed > 0) {
+            bandwidthKbps.record(transfer[1] * 8 * 1000000 / elapsed);
+        }
+    }
+
+    /**
+     * @return a histogram map ({@code count}, {@code mean}, {@code p50}, {@code p95}, {@code max}) per timing in ms or kbps,
+     * per command timing in us, per-drag count and process CPU per mille of playing time at normal and other speeds, plus {@code rebuffers}, {@code stallMillis}, {@code bytesDownloaded}, {@code rebuilds}
+     * {@code bitrateSwitches}, {@code loadRetries}, {@code loadFailures} and {@code errorRecoveries}
+     */
+    Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new HashMap<>();
+        snapshot.put("ttfaDns", ttfaDns.snapshot());
+        snapshot.put("ttfaConnect", ttfaConnect.snapshot());
+        snapshot.put("ttfaFirstByte", ttfaFirstByte.snapshot());
+        snapshot.put("ttfaPrepare", ttfaPrepare.snapshot());
+        snapshot.put("ttfaReady", ttfaReady.snapshot());
+        snapshot.put("stalls", stalls.snapshot());
+        snapshot.put("seekToReady", seekToReady.snapshot());
+        snapshot.put("bandwidthKbps", bandwidthKbps.snapshot());
+        snapshot.put("seeksPerDrag", seeksPerDrag.snapshot());
+        snapshot.put("requestsPerDrag", requestsPerDrag.snapshot());
+        snapshot.put("restoreToReady", restoreToReady.snapshot());
+        snapshot.put("commandMicros", commandMicros.snapshot());
+        snapshot.put("commandPostMicros", commandPostMicros.snapshot());
+        snapshot.put("cpuPermilleNormal", cpuPermilleNormal.snapshot());
+        snapshot.put("cpuPermilleStretched", cpuPermilleStretched.snapshot());
+        snapshot.put("rebuffers", stalls.getCount());
+        snapshot.put("stallMillis", stallMillis.get());
+        snapshot.put("bytesDownloaded", bytesDownloaded.get());
+        snapshot.put("rebuilds", rebuilds.get());
+        snapshot.put("bitrateSwitches", bitrateSwitches.get());
+        snapshot.put("loadRetries", loadRetries.get());
+        snapshot.put("loadFailures", loadFailures.get());
+        snapshot.put("errorRecoveries", errorRecoveries.get());
+        return snapshot;
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
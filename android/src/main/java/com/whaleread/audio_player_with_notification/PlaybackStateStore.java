@@ -0,0 +1,152 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Playback session persisted in a small memory-mapped file, so a sticky restart after process death can restore it.
+ * <p>
+ * Queue index, position and status sit at fixed offsets and are updated with plain stores into the mapping, no syscall
+ * involved. The queue is serialized only when it changed. The page cache outlives the process, so a killed process loses
+ * nothing that was stored.
+ */
+class PlaybackStateStore {
+    private static final String LOGGING_LABEL = "AudioPlayer";
+    private static final String FILE_NAME = "audio_player_state";
+    private static final int MAGIC = 0x41505332;
+    private static final int SIZE = 64 * 1024;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int QUEUE_INDEX_OFFSET = 4;
+    private static final int POSITION_OFFSET = 8;
+    private static final int STATUS_OFFSET = 16;
+    private static final int QUEUE_LENGTH_OFFSET = 20;
+    private static final int QUEUE_OFFSET = 24;
+
+    static final long SAVE_INTERVAL = 5000;
+
+    static class State {
+        final List<MediaItem> queue;
+        final int queueIndex;
+        final long position;
+        final int status;
+
+        State(List<MediaItem> queue, int queueIndex, long position, int status) {
+            this.queue = queue;
+            this.queueIndex = queueIndex;
+            this.position = position;
+            this.status = status;
+        }
+    }
+
+    /**
+     * null if the file could not be mapped, persistence is skipped then
+     */
+    private MappedByteBuffer buffer;
+
+    PlaybackStateStore(Context context) {
+        try (RandomAccessFile file = new RandomAccessFile(new File(context.getFilesDir(), FILE_NAME), "rw")) {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+        } catch (IOException e) {
+            Log.w(LOGGING_LABEL, "failed to map playback state, it will not be persisted", e);
+        }
+    }
+
+    void saveQueue(List<MediaItem> queue) {
+        if (buffer == null) {
+            return;
+        }
+        byte[] bytes;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(queue.size());
+            for (MediaItem item : queue) {
+                data.writeUTF(item.url);
+                data.writeUTF(item.containerHint == null ? "" : item.containerHint);
+                Map<String, String> headers = item.headers.asMap();
+                data.writeInt(headers.size());
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    data.writeUTF(header.getKey());
+                    data.writeUTF(header.getValue());
+                }
+            }
+            bytes = out.toByteArray();
+        } catch (IOException e) {
+            Log.w(LOGGING_LABEL, "failed to serialize queue", e);
+            return;
+        }
+        // an invalid record is better than a torn one, the magic is restored once the queue is complete
+        buffer.putInt(MAGIC_OFFSET, 0);
+        if (bytes.length > SIZE - QUEUE_OFFSET) {
+            Log.w(LOGGING_LABEL, "queue of " + bytes.length + " bytes is too large to persist");
+            return;
+        }
+        buffer.position(QUEUE_OFFSET);
+        buffer.put(bytes);
+        buffer.putInt(QUEUE_LENGTH_OFFSET, bytes.length);
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+    }
+
+    void save(int queueIndex, long position, int status) {
+        if (buffer == null) {
+            return;
+        }
+        buffer.putInt(QUEUE_INDEX_OFFSET, queueIndex);
+        buffer.putLong(POSITION_OFFSET, position);
+        buffer.putInt(STATUS_OFFSET, status);
+    }
+
+    @Nullable
+    State load() {
+        if (buffer == null || buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+            return null;
+        }
+        int length = buffer.getInt(QUEUE_LENGTH_OFFSET);
+        if (length < 0 || length > SIZE - QUEUE_OFFSET) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.position(QUEUE_OFFSET);
+        buffer.get(bytes);
+        try {
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+            int size = data.readInt();
+            List<MediaItem> queue = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                String url = data.readUTF();
+                String containerHint = data.readUTF();
+                int headerCount = data.readInt();
+                Map<String, String> headers = new HashMap<>();
+                for (int j = 0; j < headerCount; j++) {
+                    headers.put(data.readUTF(), data.readUTF());
+                }
+                queue.add(new MediaItem(url, HeaderSet.of(headers), containerHint.isEmpty() ? null : containerHint));
+            }
+            int queueIndex = buffer.getInt(QUEUE_INDEX_OFFSET);
+            if (queueIndex < 0 || queueIndex >= queue.size()) {
+                return null;
+            }
+            return new State(queue, queueIndex, buffer.getLong(POSITION_OFFSET), buffer.getInt(STATUS_OFFSET));
+        } catch (IOException e) {
+            Log.w(LOGGING_LABEL, "failed to read persisted playback state", e);
+            return null;
+        }
+    }
+}
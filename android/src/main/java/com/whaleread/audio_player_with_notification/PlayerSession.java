@@ -0,0 +1,117 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.source.MediaSource;
+
+/**
+ * A secondary player next to the service's main one (player 0), e.g. ambience under narration or a clip preview.
+ * <p>
+ * It plays a single url without queue, notification or audio focus, and reports status and duration events tagged with its
+ * id. Its player is built by the service from the shared bandwidth meter, allocator and http stack, so it runs on the
+ * playback thread like everything else.
+ */
+class PlayerSession implements Player.EventListener {
+    interface Listener {
+        void onPlayerEvent(int playerId, String method, @Nullable Object args);
+    }
+
+    private static final String LOGGING_LABEL = "AudioPlayer";
+
+    static final int PRIORITY_LOW = 0;
+    static final int PRIORITY_NORMAL = 1;
+    static final int PRIORITY_HIGH = 2;
+
+    final int id;
+    final int priority;
+    private final SimpleExoPlayer player;
+    private final Listener listener;
+    private boolean durationSent = false;
+
+    PlayerSession(int id, int priority, SimpleExoPlayer player, Listener listener) {
+        this.id = id;
+        this.priority = priority;
+        this.player = player;
+        this.listener = listener;
+        player.addListener(this);
+    }
+
+    /**
+     * @param position start position in ms, negative starts from the beginning
+     * @param volume   player volume in [0, 1], negative keeps the current one
+     */
+    void play(MediaSource source, long position, float volume) {
+        durationSent = false;
+        setVolume(volume);
+        player.setPlayWhenReady(true);
+        player.prepare(source, true, true);
+        if (position > 0) {
+            player.seekTo(position);
+        }
+        listener.onPlayerEvent(id, "onPlay", null);
+    }
+
+    void pause() {
+        player.setPlayWhenReady(false);
+        listener.onPlayerEvent(id, "onPause", null);
+    }
+
+    void resume() {
+        if (player.getPlaybackState() == Player.STATE_IDLE || player.getPlaybackState() == Player.STATE_ENDED) {
+            return;
+        }
+        player.setPlayWhenReady(true);
+        listener.onPlayerEvent(id, "onPlay", null);
+    }
+
+    void stop() {
+        player.stop(true);
+        listener.onPlayerEvent(id, "onStop", null);
+    }
+
+    void seekTo(long position) {
+        player.seekTo(position);
+    }
+
+    /**
+     * Unlike player 0, which sets the media stream volume, this scales only this player's output.
+     */
+    void setVolume(float volume) {
+        if (volume >= 0) {
+            player.setVolume(Math.min(1, volume));
+        }
+    }
+
+    void release() {
+        player.removeListener(this);
+        player.release();
+    }
+
+    @Override
+    public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+        switch (playbackState) {
+            case Player.STATE_READY:
+                if (!durationSent && player.getDuration() != C.TIME_UNSET) {
+                    durationSent = true;
+                    listener.onPlayerEvent(id, "onDuration", player.getDuration());
+                }
+                break;
+            case Player.STATE_ENDED:
+                player.setPlayWhenReady(false);
+                listener.onPlayerEvent(id, "onComplete", null);
+                break;
+        }
+    }
+
+    @Override
+    public void onPlayerError(ExoPlaybackException error) {
+        Log.e(LOGGING_LABEL, "error occurred while playing player " + id, error);
+        listener.onPlayerEvent(id, "onError", error.getMessage());
+    }
+}
@@ -0,0 +1,122 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.os.Handler;
+
+/**
+ * Periodically reports player position and buffer to a {@link MediaPlayerCallback}.
+ * <p>
+ * A tick only reads primitives from its {@link Source} and hands them to the callback, so the tick itself allocates nothing;
+ * the callback still boxes the values it forwards to Dart.
+ * Unchanged values are not emitted, and the rate drops while the app is in background or nobody listens on the Dart side.
+ */
+class PositionTicker implements Runnable {
+    interface Source {
+        /**
+         * @return whether ticks should keep being scheduled
+         */
+        boolean isTicking();
+
+        long getPosition();
+
+        int getBufferedPercent();
+    }
+
+    static final long BACKGROUND_INTERVAL = 1000;
+    static final long IDLE_INTERVAL = 5000;
+
+    private final Handler handler;
+    private final Source source;
+    private MediaPlayerCallback callback;
+    private long interval = 200;
+    private boolean foreground = true;
+    private boolean listening = true;
+    private boolean running = false;
+    private long lastPosition = -1;
+    private int lastBufferedPercent = -1;
+
+    PositionTicker(Handler handler, Source source) {
+        this.handler = handler;
+        this.source = source;
+    }
+
+    void setCallback(MediaPlayerCallback callback) {
+        this.callback = callback;
+    }
+
+    void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    void setForeground(boolean foreground) {
+        if (this.foreground != foreground) {
+            this.foreground = foreground;
+            reschedule();
+        }
+    }
+
+    void setListening(boolean listening) {
+        if (this.listening != listening) {
+            this.listening = listening;
+            reschedule();
+        }
+    }
+
+    /**
+     * Forget the last emitted values, so the next tick reports them again.
+     */
+    void reset() {
+        lastPosition = -1;
+        lastBufferedPercent = -1;
+    }
+
+    void start() {
+        handler.removeCallbacks(this);
+        running = true;
+        handler.post(this);
+    }
+
+    void stop() {
+        running = false;
+        handler.removeCallbacks(this);
+    }
+
+    long currentInterval() {
+        if (!listening) {
+            return Math.max(interval, IDLE_INTERVAL);
+        }
+        if (!foreground) {
+            return Math.max(interval, BACKGROUND_INTERVAL);
+        }
+        return interval;
+    }
+
+    private void reschedule() {
+        if (running) {
+            handler.removeCallbacks(this);
+            handler.post(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        if (!source.isTicking()) {
+            stop();
+            return;
+        }
+        long position = source.getPosition();
+        if (position != lastPosition) {
+            lastPosition = position;
+            if (callback != null) {
+                callback.onPosition(position);
+            }
+        }
+        int bufferedPercent = source.getBufferedPercent();
+        if (bufferedPercent != lastBufferedPercent) {
+            lastBufferedPercent = bufferedPercent;
+            if (callback != null) {
+                callback.onBuffer(bufferedPercent);
+            }
+        }
+        handler.postDelayed(this, currentInterval());
+    }
+}
@@ -0,0 +1,130 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.util.Log;
+
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.cache.CacheUtil;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fills the head of a url into the {@link MediaCache} before it is played, and reports how much of it playback consumed:
+ * the cache hits of its key within the prefetched bytes.
+ */
+class Prefetcher {
+    interface Listener {
+        void onPrefetchUsed(String url, long prefetchedBytes, long usedBytes);
+    }
+
+    private static final String LOGGING_LABEL = "AudioPlayer";
+    /**
+     * used to turn a prefetch duration into bytes, 128kbps
+     */
+    static final long ASSUMED_BYTES_PER_SECOND = 16 * 1024;
+    static final long DEFAULT_PREFETCH_MILLIS = 10000;
+
+    private static class Entry {
+        final String url;
+        volatile long bytes;
+        /**
+         * cache hits within [0, {@link #bytes}), reads of the same bytes after a seek back are counted again
+         */
+        final AtomicLong usedBytes = new AtomicLong();
+
+        Entry(String url) {
+            this.url = url;
+        }
+    }
+
+    private final MediaCache mediaCache;
+    private final Handler handler;
+    private final Listener listener;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean canceled = new AtomicBoolean();
+    /**
+     * prefetched entries by cache key, removed once the key starts playing
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile String playingKey;
+    private volatile Entry playing;
+
+    Prefetcher(MediaCache mediaCache, Handler handler, Listener listener) {
+        this.mediaCache = mediaCache;
+        this.handler = handler;
+        this.listener = listener;
+        mediaCache.setHitListener(this::onCacheHit);
+    }
+
+    void prefetch(String url, DataSource upstream, long bytes) {
+        Uri uri = Uri.parse(url);
+        String key = mediaCache.buildCacheKey(uri);
+        if (entries.containsKey(key)) {
+            return;
+        }
+        Entry entry = new Entry(url);
+        entries.put(key, entry);
+        executor.execute(() -> {
+            CacheUtil.CachingCounters counters = new CacheUtil.CachingCounters();
+            try {
+                CacheUtil.cache(new DataSpec(uri, 0, bytes, key), mediaCache.getCache(), upstream, counters, canceled);
+            } catch (Exception e) {
+                Log.w(LOGGING_LABEL, "failed to prefetch " + url, e);
+            }
+            entry.bytes = counters.totalCachedBytes();
+        });
+    }
+
+    /**
+     * Reports the usage of the previously playing item and starts tracking {@code url}.
+     */
+    void onItemStarted(String url) {
+        onItemFinished();
+        String key = mediaCache.buildCacheKey(Uri.parse(url));
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            playingKey = key;
+            playing = entry;
+            entries.remove(key);
+        }
+    }
+
+    void onItemFinished() {
+        Entry entry = playing;
+        if (entry == null) {
+            return;
+        }
+        playing = null;
+        playingKey = null;
+        long used = Math.min(entry.bytes, entry.usedBytes.get());
+        handler.post(() -> listener.onPrefetchUsed(entry.url, entry.bytes, used));
+    }
+
+    /**
+     * Counts hits of prefetched keys, including those of a gapless next item buffered before it starts.
+     */
+    private void onCacheHit(String key, long position, long bytes) {
+        Entry entry = entries.get(key);
+        if (entry == null && key.equals(playingKey)) {
+            entry = playing;
+        }
+        if (entry != null && position < entry.bytes) {
+            entry.usedBytes.addAndGet(Math.min(bytes, entry.bytes - position));
+        }
+    }
+
+    void release() {
+        canceled.set(true);
+        mediaCache.setHitListener(null);
+        executor.shutdownNow();
+        entries.clear();
+        playing = null;
+    }
+}
@@ -0,0 +1,90 @@
+package com.whaleread.audio_player_with_notification;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ParserException;
+import com.google.android.exoplayer2.upstream.AssetDataSource;
+import com.google.android.exoplayer2.upstream.ContentDataSource;
+import com.google.android.exoplayer2.upstream.DefaultLoadErrorHandlingPolicy;
+import com.google.android.exoplayer2.upstream.FileDataSource;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.LoadErrorHandlingPolicy;
+import com.google.android.exoplayer2.upstream.Loader;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSink;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Retries transient load errors in place, so the player keeps its buffer and position through a network blip.
+ * <p>
+ * Timeouts, dropped connections, DNS failures, 5xx, 408 and 429 are transient and retried after an exponential backoff with
+ * jitter, up to {@link #MAX_RETRIES} times while online and indefinitely while offline. Anything else, e.g. a 404, an
+ * unparsable stream, a bug in a loader or a full disk cache, fails right away instead of after the retries.
+ */
+class ResilientLoadErrorPolicy implements LoadErrorHandlingPolicy {
+    interface Connectivity {
+        /**
+         * Called on loader threads.
+         */
+        boolean isConnected();
+    }
+
+    static final int MAX_RETRIES = 8;
+    static final long BASE_DELAY_MS = 500;
+    /**
+     * also bounds how long a load waits after the network is back
+     */
+    static final long MAX_DELAY_MS = 8000;
+
+    private final LoadErrorHandlingPolicy defaults = new DefaultLoadErrorHandlingPolicy();
+    private final PlaybackMetrics metrics;
+    private final Connectivity connectivity;
+    private final Random random = new Random();
+
+    ResilientLoadErrorPolicy(PlaybackMetrics metrics, Connectivity connectivity) {
+        this.metrics = metrics;
+        this.connectivity = connectivity;
+    }
+
+    static boolean isTransient(IOException e) {
+        if (e instanceof HttpDataSource.InvalidResponseCodeException) {
+            int code = ((HttpDataSource.InvalidResponseCodeException) e).responseCode;
+            return code == 408 || code == 429 || code >= 500;
+        }
+        return !(e instanceof HttpDataSource.InvalidContentTypeException
+                || e instanceof ParserException
+                || e instanceof Loader.UnexpectedLoaderException
+                || e instanceof CacheDataSink.CacheDataSinkException
+                || e instanceof FileDataSource.FileDataSourceException
+                || e instanceof AssetDataSource.AssetDataSourceException
+                || e instanceof ContentDataSource.ContentDataSourceException);
+    }
+
+    /**
+     * Blacklists adaptive tracks the server says are gone, as the default policy does.
+     */
+    @Override
+    public long getBlacklistDurationMsFor(int dataType, long loadDurationMs, IOException exception, int errorCount) {
+        return defaults.getBlacklistDurationMsFor(dataType, loadDurationMs, exception, errorCount);
+    }
+
+    @Override
+    public long getRetryDelayMsFor(int dataType, long loadDurationMs, IOException exception, int errorCount) {
+        if (!isTransient(exception) || (errorCount > MAX_RETRIES && connectivity.isConnected())) {
+            metrics.onLoadFailed();
+            return C.TIME_UNSET;
+        }
+        metrics.onLoadRetry();
+        long backoff = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(errorCount - 1, 16));
+        // half of the backoff is random, so players that failed together do not retry together
+        return backoff / 2 + (long) (random.nextDouble() * backoff / 2);
+    }
+
+    /**
+     * Errors are only surfaced once {@link #getRetryDelayMsFor} gives up.
+     */
+    @Override
+    public int getMinimumLoadableRetryCount(int dataType) {
+        return Integer.MAX_VALUE;
+    }
+}
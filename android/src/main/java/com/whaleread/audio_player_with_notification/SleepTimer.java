@@ -0,0 +1,169 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+
+/**
+ * Pauses playback after a duration or at the end of the current track, optionally fading out over its last milliseconds.
+ * <p>
+ * Nothing polls the position: a duration is a delayed post against an elapsed realtime deadline, the end of the track and
+ * the start of its fade are {@code PlayerMessage}s the player delivers at those positions. Messages belong to a player and
+ * a timeline, so they are armed again each time the player gets ready; the generation they carry drops the ones of timers
+ * cancelled or armed since. Called on the playback thread.
+ */
+class SleepTimer {
+    interface Host {
+        /**
+         * Pauses the player, whose volume is restored right after.
+         *
+         * @param endOfTrack whether the timer fired at the end of a track rather than after its duration
+         */
+        void onSleepTimerFired(boolean endOfTrack);
+    }
+
+    private static final long FADE_STEP = 50;
+
+    private final Handler handler;
+    private final Host host;
+    @Nullable
+    private SimpleExoPlayer player;
+    /**
+     * elapsed realtime the duration timer fires at, 0 if not set
+     */
+    private volatile long deadline = 0;
+    private boolean endOfTrack = false;
+    private long fadeMillis = 0;
+    private int generation = 0;
+    /**
+     * elapsed realtime the running fade reaches silence at, 0 if not fading
+     */
+    private long fadeEndAt = 0;
+    private final Runnable deadlineRunnable = () -> fire(false);
+    private final Runnable fadeStartRunnable = () -> startFade(deadline);
+    private final Runnable fadeRunnable = this::stepFade;
+
+    SleepTimer(Handler handler, Host host) {
+        this.handler = handler;
+        this.host = host;
+    }
+
+    /**
+     * Replaces the current timer.
+     *
+     * @param millis     fires after this long, 0 for no duration
+     * @param endOfTrack fires at the end of the track playing, whichever comes first if a duration is set too
+     * @param fadeMillis fades the volume out over this long before firing
+     */
+    void set(long millis, boolean endOfTrack, long fadeMillis, @Nullable SimpleExoPlayer player) {
+        cancel();
+        this.endOfTrack = endOfTrack;
+        this.fadeMillis = Math.max(0, fadeMillis);
+        if (millis > 0) {
+            deadline = SystemClock.elapsedRealtime() + millis;
+            long fadeIn = millis - this.fadeMillis;
+            if (this.fadeMillis > 0) {
+                handler.postDelayed(fadeStartRunnable, Math.max(0, fadeIn));
+            }
+            handler.postDelayed(deadlineRunnable, millis);
+        }
+        if (player != null) {
+            onPlayerReady(player);
+        }
+    }
+
+    void cancel() {
+        generation++;
+        deadline = 0;
+        endOfTrack = false;
+        handler.removeCallbacks(deadlineRunnable);
+        handler.removeCallbacks(fadeStartRunnable);
+        handler.removeCallbacks(fadeRunnable);
+        stopFade();
+    }
+
+    boolean isSet() {
+        return deadline != 0 || endOfTrack;
+    }
+
+    /**
+     * @return milliseconds until the duration timer fires, -1 if it is not set
+     */
+    long getRemainingMillis() {
+        long deadline = this.deadline;
+        return deadline == 0 ? -1 : Math.max(0, deadline - SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Arms the end of track messages on {@code player}, which just got ready on its current track.
+     */
+    void onPlayerReady(SimpleExoPlayer player) {
+        this.player = player;
+        if (!endOfTrack) {
+            return;
+        }
+        int generation = ++this.generation;
+        int window = player.getCurrentWindowIndex();
+        long duration = player.getDuration();
+        if (fadeMillis > 0 && duration != C.TIME_UNSET) {
+            long fadeAt = Math.max(0, duration - fadeMillis);
+            player.createMessage((type, payload) -> {
+                if ((int) payload == this.generation) {
+                    startFade(SystemClock.elapsedRealtime() + Math.max(0, duration - player.getCurrentPosition()));
+                }
+            }).setPosition(window, fadeAt).setPayload(generation).setHandler(handler).send();
+        }
+        player.createMessage((type, payload) -> {
+            if ((int) payload == this.generation) {
+                if (player.getCurrentWindowIndex() != window) {
+                    // handled a moment after the next track started, rewind it so a resume plays it from the start
+                    player.seekTo(player.getCurrentWindowIndex(), 0);
+                }
+                fire(true);
+            }
+        }).setPosition(window, C.TIME_END_OF_SOURCE).setPayload(generation).setHandler(handler).send();
+    }
+
+    void onPlayerReleased() {
+        stopFade();
+        player = null;
+    }
+
+    private void startFade(long endAt) {
+        if (fadeEndAt != 0 && fadeEndAt <= endAt) {
+            return;
+        }
+        fadeEndAt = endAt;
+        handler.removeCallbacks(fadeRunnable);
+        stepFade();
+    }
+
+    private void stepFade() {
+        long remaining = fadeEndAt - SystemClock.elapsedRealtime();
+        if (player != null) {
+            player.setVolume(Math.max(0, Math.min(1, (float) remaining / fadeMillis)));
+        }
+        // at the end of a track the fade holds silence until the end message arrives
+        if (remaining > 0) {
+            handler.postDelayed(fadeRunnable, Math.min(FADE_STEP, remaining));
+        }
+    }
+
+    private void stopFade() {
+        handler.removeCallbacks(fadeRunnable);
+        if (fadeEndAt != 0 && player != null) {
+            player.setVolume(1);
+        }
+        fadeEndAt = 0;
+    }
+
+    private void fire(boolean atEndOfTrack) {
+        // pause while still silent, the volume is restored for the next play afterwards
+        host.onSleepTimerFired(atEndOfTrack);
+        cancel();
+    }
+}
@@ -0,0 +1,159 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultRenderersFactory;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.RenderersFactory;
+import com.google.android.exoplayer2.extractor.DefaultExtractorInput;
+import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
+import com.google.android.exoplayer2.extractor.Extractor;
+import com.google.android.exoplayer2.extractor.ExtractorInput;
+import com.google.android.exoplayer2.extractor.ExtractorsFactory;
+import com.google.android.exoplayer2.extractor.mp3.Mp3Extractor;
+import com.google.android.exoplayer2.upstream.ByteArrayDataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the audio only extractor and renderer factories with ExoPlayer's defaults, on the work each player build and
+ * each load does with them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class AudioFactoriesBenchmarkTest {
+    private static final int WARMUP = 200;
+    private static final int ITERATIONS = 2000;
+    /**
+     * relative to the android module, where Gradle runs unit tests
+     */
+    private static final File MP3 = new File("../test/assets/audio.mp3");
+
+    private static class Sniffed {
+        Extractor extractor;
+        int sniffs;
+    }
+
+    /**
+     * Picks the extractor of a load as ExoPlayer's progressive media period does: the first one whose sniff accepts the
+     * stream, rewinding the input between sniffs.
+     */
+    private static Sniffed sniff(ExtractorsFactory factory, byte[] data) throws IOException, InterruptedException {
+        ByteArrayDataSource source = new ByteArrayDataSource(data);
+        source.open(new DataSpec(Uri.EMPTY));
+        ExtractorInput input = new DefaultExtractorInput(source, 0, data.length);
+        Sniffed sniffed = new Sniffed();
+        for (Extractor extractor : factory.createExtractors()) {
+            sniffed.sniffs++;
+            try {
+                if (extractor.sniff(input)) {
+                    sniffed.extractor = extractor;
+                    break;
+                }
+            } catch (EOFException e) {
+                // the stream is shorter than this extractor's header
+            } finally {
+                input.resetPeekPosition();
+            }
+        }
+        source.close();
+        return sniffed;
+    }
+
+    /**
+     * @return nanoseconds per sniff
+     */
+    private static long time(ExtractorsFactory factory, byte[] data) throws IOException, InterruptedException {
+        for (int i = 0; i < WARMUP; i++) {
+            sniff(factory, data);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sniff(factory, data);
+        }
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    @Test
+    public void hintedExtractorSniffsFasterThanDefaults() throws IOException, InterruptedException {
+        byte[] data = Files.readAllBytes(MP3.toPath());
+        Uri uri = Uri.parse("https://cdn.example.com/audio.mp3");
+        ExtractorsFactory defaults = new DefaultExtractorsFactory();
+        ExtractorsFactory hinted = AudioExtractorsFactory.of("mp3", uri);
+        ExtractorsFactory guessed = AudioExtractorsFactory.of(null, uri);
+
+        Sniffed byDefaults = sniff(defaults, data);
+        Sniffed byHint = sniff(hinted, data);
+        assertTrue(byDefaults.extractor instanceof Mp3Extractor);
+        assertTrue(byHint.extractor instanceof Mp3Extractor);
+        assertTrue(sniff(guessed, data).extractor instanceof Mp3Extractor);
+        // the defaults try Matroska and both MP4 extractors first
+        assertTrue("default sniffs " + byDefaults.sniffs, byDefaults.sniffs > 1);
+        assertEquals(1, byHint.sniffs);
+        assertEquals(1, sniff(guessed, data).sniffs);
+
+        long defaultNanos = time(defaults, data);
+        long hintedNanos = time(hinted, data);
+        assertTrue("hinted " + hintedNanos + " ns, default " + defaultNanos + " ns", hintedNanos < defaultNanos);
+    }
+
+    private static Renderer[] createRenderers(RenderersFactory factory) {
+        return factory.createRenderers(new Handler(Looper.getMainLooper()), null, null, cues -> {
+        }, metadata -> {
+        }, null);
+    }
+
+    /**
+     * @return nanoseconds per player build's renderers
+     */
+    private static long time(RenderersFactory factory) {
+        for (int i = 0; i < WARMUP; i++) {
+            createRenderers(factory);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            createRenderers(factory);
+        }
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    @Test
+    public void audioRenderersBuildFasterThanDefaults() {
+        RenderersFactory defaults = new DefaultRenderersFactory(RuntimeEnvironment.application);
+        RenderersFactory audioOnly = new AudioRenderersFactory(RuntimeEnvironment.application);
+
+        Renderer[] all = createRenderers(defaults);
+        Renderer[] audio = createRenderers(audioOnly);
+        assertEquals(1, audio.length);
+        assertEquals(C.TRACK_TYPE_AUDIO, audio[0].getTrackType());
+        int audioRenderers = 0;
+        for (Renderer renderer : all) {
+            if (renderer.getTrackType() == C.TRACK_TYPE_AUDIO) {
+                audioRenderers++;
+            }
+        }
+        // video, text, metadata and camera motion renderers on top of the same audio renderer
+        assertEquals(1, audioRenderers);
+        assertTrue("default renderers " + all.length, all.length >= 4);
+
+        long defaultNanos = time(defaults);
+        long audioNanos = time(audioOnly);
+        assertTrue("audio only " + audioNanos + " ns, default " + defaultNanos + " ns", audioNanos < defaultNanos);
+    }
+}
@@ -0,0 +1,61 @@
+package com.whaleread.audio_player_with_notification;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class BitrateLadderTest {
+    private static BitrateLadder ladder() {
+        return new BitrateLadder(Arrays.asList("120.mp3", "30.mp3", "60.mp3"), Arrays.asList(120000, 30000, 60000),
+                HeaderSet.EMPTY, null);
+    }
+
+    @Test
+    public void sortsRenditionsByBitrate() {
+        BitrateLadder ladder = ladder();
+        assertEquals("30.mp3", ladder.getUrl(0));
+        assertEquals(30000, ladder.getBitrate(0));
+        assertEquals("60.mp3", ladder.getUrl(1));
+        assertEquals("120.mp3", ladder.getUrl(2));
+        assertEquals(120000, ladder.getBitrate(2));
+    }
+
+    @Test
+    public void selectsHighestRenditionFittingThreeQuartersOfTheEstimate() {
+        BitrateLadder ladder = ladder();
+        assertEquals(0, ladder.select(0));
+        assertEquals(0, ladder.select(40000));
+        assertEquals(0, ladder.select(79999));
+        assertEquals(1, ladder.select(80000));
+        assertEquals(1, ladder.select(159999));
+        assertEquals(2, ladder.select(160000));
+        assertEquals(2, ladder.select(10_000_000));
+    }
+
+    @Test
+    public void stepsDownAfterStall() {
+        BitrateLadder ladder = ladder();
+        ladder.current = 2;
+        // at least one step down even if the estimate allows the current rendition
+        assertEquals(1, ladder.selectAfterStall(10_000_000));
+        // further down if the estimate says so
+        assertEquals(0, ladder.selectAfterStall(40000));
+        ladder.current = 1;
+        assertEquals(0, ladder.selectAfterStall(10_000_000));
+        ladder.current = 0;
+        assertEquals(0, ladder.selectAfterStall(10_000_000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMismatchedBitrates() {
+        new BitrateLadder(Arrays.asList("a.mp3", "b.mp3"), Collections.singletonList(32000), HeaderSet.EMPTY, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyLadder() {
+        new BitrateLadder(Collections.emptyList(), Collections.emptyList(), HeaderSet.EMPTY, null);
+    }
+}
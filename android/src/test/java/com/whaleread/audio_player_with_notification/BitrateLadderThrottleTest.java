@@ -0,0 +1,230 @@
+package com.whaleread.audio_player_with_notification;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Plays renditions served by a throttled {@link MockWebServer}, with the stall handling of the service: a stall lasting
+ * {@link BitrateLadder#STALL_SWITCH_DELAY} re-prepares at {@link BitrateLadder#selectAfterStall}, keeping the position.
+ * <p>
+ * Playback runs {@link #SPEED} times faster than the wall clock and the network is throttled to match, so 30 s of audio
+ * take about three seconds. Bitrates on the wire are {@link #SCALE} times those of the ladder, so the test is not bound by
+ * the throttle's granularity.
+ */
+public class BitrateLadderThrottleTest {
+    private static final int SPEED = 10;
+    private static final int SCALE = 10;
+    /**
+     * enough for the 64 kbps rendition only
+     */
+    private static final int LINK_BITRATE = 96_000;
+    private static final long THROTTLE_PERIOD_MILLIS = 10;
+    private static final long THROTTLE_BYTES = (long) LINK_BITRATE * SCALE / 8 * SPEED * THROTTLE_PERIOD_MILLIS / 1000;
+    private static final int[] BITRATES = {32_000, 64_000, 128_000};
+    private static final int TOP = BITRATES.length - 1;
+    private static final long TRACK_MILLIS = 40_000;
+    private static final long PLAY_MILLIS = 30_000;
+    private static final long TIMEOUT_MILLIS = 30_000;
+    /**
+     * audio time advanced per step of the simulated player
+     */
+    private static final long STEP_MILLIS = 20;
+
+    private final OkHttpClient client = new OkHttpClient();
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                int bitrate = Integer.parseInt(request.getPath().substring(1, request.getPath().indexOf('.')));
+                int length = (int) (bitrate / 8 * TRACK_MILLIS / 1000);
+                String range = request.getHeader("Range");
+                int start = range == null ? 0 : Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                MockResponse response = new MockResponse()
+                        .setBody(new Buffer().write(new byte[length - start]))
+                        .throttleBody(THROTTLE_BYTES, THROTTLE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+                if (start > 0) {
+                    response.setResponseCode(206).setHeader("Content-Range", "bytes " + start + "-" + (length - 1) + "/" + length);
+                }
+                return response;
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.dispatcher().executorService().shutdown();
+        server.shutdown();
+    }
+
+    private static int scaled(int index) {
+        return BITRATES[index] * SCALE;
+    }
+
+    /**
+     * Loads a rendition from a byte offset on its own thread, as the player's loader does.
+     */
+    private class Load implements Runnable {
+        final int bitrate;
+        final long offset;
+        final long startedAtNanos = System.nanoTime();
+        final AtomicLong loaded = new AtomicLong();
+        final AtomicBoolean finished = new AtomicBoolean();
+        private final Call call;
+
+        Load(int bitrate, long offset) {
+            this.bitrate = bitrate;
+            this.offset = offset;
+            Request.Builder request = new Request.Builder().url(server.url("/" + bitrate + ".mp3"));
+            if (offset > 0) {
+                request.header("Range", "bytes=" + offset + "-");
+            }
+            call = client.newCall(request.build());
+            new Thread(this, "BitrateLadderThrottleTest").start();
+        }
+
+        @Override
+        public void run() {
+            try (Response response = call.execute()) {
+                InputStream body = response.body().byteStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = body.read(buffer)) != -1) {
+                    loaded.addAndGet(read);
+                }
+                finished.set(true);
+            } catch (IOException e) {
+                // canceled by a switch
+            }
+        }
+
+        void cancel() {
+            call.cancel();
+        }
+
+        /**
+         * @return end of the buffered audio
+         */
+        long bufferedUntilMillis() {
+            return (offset + loaded.get()) * 8000 / bitrate;
+        }
+
+        /**
+         * @return bits per second of playback time, as the player's bandwidth meter would see them
+         */
+        long bitrateEstimate() {
+            long playbackMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAtNanos) * SPEED;
+            return playbackMillis == 0 ? 0 : loaded.get() * 8000 / playbackMillis;
+        }
+    }
+
+    private static class Playback {
+        int stalls;
+        final List<Integer> renditions = new ArrayList<>();
+    }
+
+    /**
+     * Plays {@link #PLAY_MILLIS} of audio starting at the top rendition, with the buffer thresholds of
+     * {@link BufferingPolicy#LOW_MEMORY}. Stalls are counted once playback was ready, as the service's metrics do.
+     *
+     * @param ladder switches renditions on a long stall if not null
+     */
+    private Playback play(BitrateLadder ladder) throws InterruptedException {
+        Playback playback = new Playback();
+        int index = TOP;
+        if (ladder != null) {
+            ladder.current = index;
+        }
+        playback.renditions.add(index);
+        Load load = new Load(scaled(index), 0);
+        long position = 0;
+        boolean ready = false;
+        boolean buffering = true;
+        long bufferingMillis = 0;
+        long playbackClock = 0;
+        long startedAt = System.currentTimeMillis();
+        while (position < PLAY_MILLIS) {
+            if (System.currentTimeMillis() - startedAt > TIMEOUT_MILLIS) {
+                load.cancel();
+                fail("played " + position + " of " + PLAY_MILLIS + " ms");
+            }
+            long wallTarget = startedAt + (playbackClock += STEP_MILLIS) / SPEED;
+            Thread.sleep(Math.max(0, wallTarget - System.currentTimeMillis()));
+            long buffered = load.bufferedUntilMillis() - position;
+            if (buffering) {
+                bufferingMillis += STEP_MILLIS;
+                long needed = ready ? BufferingPolicy.LOW_MEMORY.bufferForPlaybackAfterRebufferMs
+                        : BufferingPolicy.LOW_MEMORY.bufferForPlaybackMs;
+                if (buffered >= needed || load.finished.get()) {
+                    buffering = false;
+                    ready = true;
+                } else if (ladder != null && ready && bufferingMillis >= BitrateLadder.STALL_SWITCH_DELAY) {
+                    int next = ladder.selectAfterStall(load.bitrateEstimate() / SCALE);
+                    if (next != ladder.current) {
+                        // re-prepares at the position, dropping the buffer
+                        ladder.current = index = next;
+                        playback.renditions.add(index);
+                        load.cancel();
+                        load = new Load(scaled(index), position * scaled(index) / 8000);
+                        ready = false;
+                        bufferingMillis = 0;
+                    }
+                }
+            } else {
+                position += Math.min(STEP_MILLIS, buffered);
+                if (buffered <= STEP_MILLIS && !load.finished.get()) {
+                    buffering = true;
+                    bufferingMillis = 0;
+                    playback.stalls++;
+                }
+            }
+        }
+        load.cancel();
+        return playback;
+    }
+
+    private static BitrateLadder ladder() {
+        return new BitrateLadder(Arrays.asList("32.mp3", "64.mp3", "128.mp3"), Arrays.asList(32000, 64000, 128000),
+                HeaderSet.EMPTY, null);
+    }
+
+    @Test
+    public void stepsDownOnThrottledLinkAndStallsLessThanFixedTopRendition() throws InterruptedException {
+        Playback adaptive = play(ladder());
+        Playback fixed = play(null);
+
+        // one step down after the first stall, the middle rendition fits the link
+        assertEquals(Arrays.asList(TOP, TOP - 1), adaptive.renditions);
+        assertEquals(1, adaptive.stalls);
+        assertTrue("fixed 128 kbps stalled " + fixed.stalls + " times", fixed.stalls >= 2);
+        assertTrue(adaptive.stalls < fixed.stalls);
+    }
+}
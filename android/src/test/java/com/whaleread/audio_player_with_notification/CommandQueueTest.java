@@ -0,0 +1,170 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class CommandQueueTest {
+    /**
+     * Stands in for the player, commands only record themselves and change the status.
+     */
+    public static class FakeService extends MediaPlayerService {
+        int fakeStatus = PLAYER_STATUS_STOPPED;
+
+        @Override
+        int getStatus() {
+            return fakeStatus;
+        }
+    }
+
+    private final List<String> applied = new ArrayList<>();
+    private FakeService service;
+    private CommandQueue queue;
+
+    @Before
+    public void setUp() {
+        ShadowLooper.pauseMainLooper();
+        service = new FakeService();
+        queue = new CommandQueue(service, new Handler(Looper.getMainLooper()), new PlaybackMetrics());
+    }
+
+    private void pause() {
+        queue.submit(CommandQueue.TYPE_PAUSE, s -> {
+            applied.add("pause");
+            service.fakeStatus = MediaPlayerService.PLAYER_STATUS_PAUSED;
+        });
+    }
+
+    private void resume() {
+        queue.submit(CommandQueue.TYPE_RESUME, s -> {
+            applied.add("resume");
+            service.fakeStatus = MediaPlayerService.PLAYER_STATUS_PLAYING;
+        });
+    }
+
+    private void toggle() {
+        queue.submit(CommandQueue.TYPE_TOGGLE, s -> {
+            applied.add("toggle");
+            service.fakeStatus = service.fakeStatus == MediaPlayerService.PLAYER_STATUS_PLAYING
+                    ? MediaPlayerService.PLAYER_STATUS_PAUSED : MediaPlayerService.PLAYER_STATUS_PLAYING;
+        });
+    }
+
+    private void drain() {
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    }
+
+    @Test
+    public void pauseAfterResumeWhilePlayingPauses() {
+        service.fakeStatus = MediaPlayerService.PLAYER_STATUS_PLAYING;
+        resume();
+        pause();
+        drain();
+        assertEquals(Collections.singletonList("pause"), applied);
+        assertEquals(MediaPlayerService.PLAYER_STATUS_PAUSED, service.fakeStatus);
+    }
+
+    @Test
+    public void resumeAfterPauseWhilePausedResumes() {
+        service.fakeStatus = MediaPlayerService.PLAYER_STATUS_PAUSED;
+        pause();
+        resume();
+        drain();
+        assertEquals(Collections.singletonList("resume"), applied);
+        assertEquals(MediaPlayerService.PLAYER_STATUS_PLAYING, service.fakeStatus);
+    }
+
+    @Test
+    public void lastOfABurstOfPausesAndResumesWins() {
+        service.fakeStatus = MediaPlayerService.PLAYER_STATUS_PLAYING;
+        pause();
+        resume();
+        pause();
+        resume();
+        pause();
+        drain();
+        assertEquals(Collections.singletonList("pause"), applied);
+        assertEquals(MediaPlayerService.PLAYER_STATUS_PAUSED, service.fakeStatus);
+    }
+
+    @Test
+    public void twoTogglesCancelOutWhilePlayingOrPaused() {
+        service.fakeStatus = MediaPlayerService.PLAYER_STATUS_PLAYING;
+        toggle();
+        toggle();
+        drain();
+        assertEquals(Collections.emptyList(), applied);
+        assertEquals(MediaPlayerService.PLAYER_STATUS_PLAYING, service.fakeStatus);
+
+        service.fakeStatus = MediaPlayerService.PLAYER_STATUS_PAUSED;
+        toggle();
+        toggle();
+        drain();
+        assertEquals(Collections.emptyList(), applied);
+        assertEquals(MediaPlayerService.PLAYER_STATUS_PAUSED, service.fakeStatus);
+    }
+
+    @Test
+    public void twoTogglesApplyWhileStoppedOrCompleted() {
+        for (int status : new int[]{MediaPlayerService.PLAYER_STATUS_STOPPED, MediaPlayerService.PLAYER_STATUS_COMPLETED}) {
+            applied.clear();
+            service.fakeStatus = status;
+            toggle();
+            toggle();
+            drain();
+            assertEquals(Arrays.asList("toggle", "toggle"), applied);
+            assertEquals(MediaPlayerService.PLAYER_STATUS_PAUSED, service.fakeStatus);
+        }
+    }
+
+    @Test
+    public void thirdToggleIsAppliedAfterThePair() {
+        service.fakeStatus = MediaPlayerService.PLAYER_STATUS_PLAYING;
+        toggle();
+        toggle();
+        toggle();
+        drain();
+        assertEquals(Collections.singletonList("toggle"), applied);
+        assertEquals(MediaPlayerService.PLAYER_STATUS_PAUSED, service.fakeStatus);
+    }
+
+    @Test
+    public void collapsedCommandsAreAckedWithTheLastSequenceNumber() {
+        long[] acked = new long[2];
+        service.fakeStatus = MediaPlayerService.PLAYER_STATUS_PLAYING;
+        resume();
+        queue.whenApplied((seq, status) -> acked[0] = seq);
+        pause();
+        queue.whenApplied((seq, status) -> {
+            acked[1] = seq;
+            assertEquals(MediaPlayerService.PLAYER_STATUS_PAUSED, status);
+        });
+        drain();
+        assertEquals(2, acked[0]);
+        assertEquals(2, acked[1]);
+        assertEquals(1L, queue.getStats().get("collapsed"));
+    }
+
+    @Test
+    public void lastVolumeWins() {
+        queue.submit(CommandQueue.TYPE_VOLUME, s -> applied.add("volume 0.2"));
+        queue.submit(CommandQueue.TYPE_VOLUME, s -> applied.add("volume 0.8"));
+        drain();
+        assertEquals(Collections.singletonList("volume 0.8"), applied);
+    }
+}
@@ -0,0 +1,181 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class DownloadQueueTest {
+    private static final int LENGTH = 256 * 1024;
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private final byte[] content = new byte[LENGTH];
+    private MockWebServer server;
+    private DownloadQueue queue;
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        server = new MockWebServer();
+        server.start();
+        queue = new DownloadQueue(RuntimeEnvironment.application, new Handler(Looper.getMainLooper()),
+                (url, state, downloadedBytes, contentLength) -> {
+                });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        queue.release();
+        server.shutdown();
+    }
+
+    private String url(String path) {
+        return server.url(path).toString();
+    }
+
+    private Map<String, Object> awaitDone(String url) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            for (Map<String, Object> download : queue.getDownloads()) {
+                int state = (int) download.get("state");
+                if (url.equals(download.get("url")) && state != DownloadQueue.STATE_QUEUED && state != DownloadQueue.STATE_DOWNLOADING) {
+                    return download;
+                }
+            }
+            Thread.sleep(10);
+        }
+        fail("download of " + url + " did not finish");
+        return null;
+    }
+
+    private static DataSource upstream() {
+        return new DefaultHttpDataSource("test", null);
+    }
+
+    private byte[] readBack(String url, String key) throws IOException {
+        DataSource.Factory offline = () -> {
+            throw new AssertionError("downloaded bytes should be read from disk");
+        };
+        DataSource source = queue.createDataSourceFactory(offline).createDataSource();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            source.open(new DataSpec(Uri.parse(url), 0, C.LENGTH_UNSET, key));
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = source.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            source.close();
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void keyIgnoresSigningParameters() {
+        assertEquals(DownloadQueue.buildKey("https://cdn.example.com/a.mp3?id=1&token=abc&expires=1"),
+                DownloadQueue.buildKey("https://cdn.example.com/a.mp3?id=1&token=def&expires=2"));
+        assertFalse(DownloadQueue.buildKey("https://cdn.example.com/a.mp3?id=1").equals(
+                DownloadQueue.buildKey("https://cdn.example.com/a.mp3?id=2")));
+    }
+
+    @Test
+    public void downloadsWholeContent() throws Exception {
+        server.enqueue(new MockResponse().setBody(new Buffer().write(content)));
+        String url = url("/whole.mp3?token=1");
+        String key = DownloadQueue.buildKey(url);
+
+        assertTrue(queue.download(url, key, upstream()));
+        Map<String, Object> download = awaitDone(url);
+        assertEquals(DownloadQueue.STATE_COMPLETED, download.get("state"));
+        assertEquals((long) LENGTH, download.get("downloadedBytes"));
+        assertEquals((long) LENGTH, download.get("contentLength"));
+        assertTrue(queue.contains(key));
+        assertArrayEquals(content, readBack(url, key));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void resumesFromDownloadedBytes() throws Exception {
+        server.enqueue(new MockResponse().setBody(new Buffer().write(content))
+                .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+        String url = url("/resume.mp3");
+        String key = DownloadQueue.buildKey(url);
+
+        queue.download(url, key, upstream());
+        Map<String, Object> failed = awaitDone(url);
+        assertEquals(DownloadQueue.STATE_FAILED, failed.get("state"));
+        long downloaded = (long) failed.get("downloadedBytes");
+        assertTrue("downloaded " + downloaded, downloaded > 0 && downloaded < LENGTH);
+        assertNull(server.takeRequest().getHeader("Range"));
+
+        byte[] rest = new byte[LENGTH - (int) downloaded];
+        System.arraycopy(content, (int) downloaded, rest, 0, rest.length);
+        server.enqueue(new MockResponse().setResponseCode(206)
+                .setHeader("Content-Range", "bytes " + downloaded + "-" + (LENGTH - 1) + "/" + LENGTH)
+                .setBody(new Buffer().write(rest)));
+        queue.download(url, key, upstream());
+        Map<String, Object> completed = awaitDone(url);
+        assertEquals(DownloadQueue.STATE_COMPLETED, completed.get("state"));
+
+        RecordedRequest resumed = server.takeRequest();
+        assertEquals("bytes=" + downloaded + "-", resumed.getHeader("Range"));
+        assertArrayEquals(content, readBack(url, key));
+    }
+
+    @Test
+    public void failsOnHttpError() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(404));
+        String url = url("/missing.mp3");
+        String key = DownloadQueue.buildKey(url);
+
+        queue.download(url, key, upstream());
+        assertEquals(DownloadQueue.STATE_FAILED, awaitDone(url).get("state"));
+        assertFalse(queue.contains(key));
+    }
+
+    @Test
+    public void removeDeletesDownloadedBytes() throws Exception {
+        server.enqueue(new MockResponse().setBody(new Buffer().write(content)));
+        String url = url("/removed.mp3");
+        String key = DownloadQueue.buildKey(url);
+
+        queue.download(url, key, upstream());
+        assertEquals(DownloadQueue.STATE_COMPLETED, awaitDone(url).get("state"));
+        queue.remove(key);
+        assertFalse(queue.contains(key));
+    }
+}
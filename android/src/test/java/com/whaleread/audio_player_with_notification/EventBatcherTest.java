@@ -0,0 +1,223 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.os.Handler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.EventChannel;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.StandardMessageCodec;
+import io.flutter.plugin.common.StandardMethodCodec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventBatcherTest {
+    private static final long DEFAULT_TICK_MILLIS = 200;
+    private static final long TRACK_MILLIS = 3 * 60 * 1000;
+    private static final int TRACKS = 10;
+    private static final long BUFFER_AHEAD_MILLIS = 50_000;
+
+    /**
+     * Encodes each batch as the event channel does and keeps the ack the batch asks for, to be sent once handled.
+     */
+    private static class EncodingSink implements EventChannel.EventSink {
+        long batches;
+        long acks;
+        long pendingAck;
+        final List<Integer> eventCounts = new ArrayList<>();
+
+        @Override
+        public void success(Object event) {
+            batches++;
+            assertTrue(StandardMessageCodec.INSTANCE.encodeMessage(event).position() > 0);
+            Map<?, ?> batch = (Map<?, ?>) event;
+            List<?> events = (List<?>) batch.get("events");
+            eventCounts.add(events == null ? 0 : events.size());
+            if (Boolean.TRUE.equals(batch.get("ack"))) {
+                acks++;
+                pendingAck = (Long) batch.get("seq");
+            }
+        }
+
+        @Override
+        public void error(String errorCode, String errorMessage, Object errorDetails) {
+        }
+
+        @Override
+        public void endOfStream() {
+        }
+
+        /**
+         * Acks the handled batches as Dart would.
+         */
+        void handled(EventBatcher batcher) {
+            if (pendingAck > 0) {
+                batcher.ack(pendingAck);
+                pendingAck = 0;
+            }
+        }
+
+        /**
+         * @return platform messages, an ack is a method call and its reply
+         */
+        long messages() {
+            return batches + 2 * acks;
+        }
+    }
+
+    /**
+     * The channel calls player events were sent as before batching, one method call each.
+     */
+    private static class MethodCalls {
+        long messages;
+
+        void invokeMethod(String method, Object arguments) {
+            assertTrue(StandardMethodCodec.INSTANCE.encodeMethodCall(new MethodCall(method, arguments)).position() > 0);
+            messages++;
+        }
+    }
+
+    private static class PlaybackSource implements PositionTicker.Source {
+        long position;
+        int ticks;
+        /**
+         * the buffer grows every tick, e.g. after a seek or on a slow network, rather than staying a fixed time ahead
+         */
+        boolean filling;
+
+        @Override
+        public boolean isTicking() {
+            return true;
+        }
+
+        @Override
+        public long getPosition() {
+            return position;
+        }
+
+        @Override
+        public int getBufferedPercent() {
+            if (filling) {
+                return Math.min(100, ticks);
+            }
+            return (int) Math.min(100, (position + BUFFER_AHEAD_MILLIS) * 100 / TRACK_MILLIS);
+        }
+    }
+
+    /**
+     * Plays {@link #TRACKS} tracks through a {@link PositionTicker} reporting to both the batcher and per event method calls,
+     * with a burst of status, duration, track index and bitrate events as each track starts.
+     *
+     * @return platform messages of the batcher, including acks, and of per event method calls
+     */
+    private static long[] play(long tickMillis, boolean filling) {
+        EventBatcher batcher = new EventBatcher();
+        EncodingSink sink = new EncodingSink();
+        batcher.onListen(null, sink);
+        MethodCalls calls = new MethodCalls();
+        PlaybackSource source = new PlaybackSource();
+        source.filling = filling;
+        PositionTicker ticker = new PositionTicker(new Handler(), source);
+        ticker.setCallback(new NoOpMediaPlayerCallback() {
+            @Override
+            public void onPosition(long position) {
+                batcher.onPosition(position);
+                calls.invokeMethod("onPosition", position);
+            }
+
+            @Override
+            public void onBuffer(int percent) {
+                batcher.onBuffer(percent);
+                calls.invokeMethod("onBuffer", percent);
+            }
+        });
+        for (int track = 0; track < TRACKS; track++) {
+            batcher.onStatus(MediaPlayerService.PLAYER_STATUS_PLAYING, "onPlay", null);
+            calls.invokeMethod("onPlay", null);
+            batcher.onEvent("onDuration", TRACK_MILLIS);
+            calls.invokeMethod("onDuration", TRACK_MILLIS);
+            batcher.onEvent("onTrackIndexChanged", track);
+            calls.invokeMethod("onTrackIndexChanged", track);
+            batcher.onEvent("onBitrateChanged", 128000);
+            calls.invokeMethod("onBitrateChanged", 128000);
+            source.ticks = 0;
+            for (long position = 0; position < TRACK_MILLIS; position += tickMillis) {
+                source.position = position;
+                source.ticks++;
+                ticker.run();
+                // ticks are longer than a frame, so each one is flushed on its own
+                batcher.flush();
+                sink.handled(batcher);
+            }
+        }
+        return new long[]{sink.messages(), calls.messages};
+    }
+
+    @Test
+    public void dropsEventsWhileNobodyListens() {
+        EventBatcher batcher = new EventBatcher();
+        EncodingSink sink = new EncodingSink();
+        for (int i = 0; i < 1000; i++) {
+            batcher.onEvent("onDuration", 1000L);
+        }
+        assertEquals(1000L, batcher.getStats().get("droppedEvents"));
+        batcher.onListen(null, sink);
+        batcher.onEvent("onDuration", 1000L);
+        batcher.flush();
+        assertEquals(1, sink.batches);
+        assertEquals(Integer.valueOf(1), sink.eventCounts.get(0));
+    }
+
+    @Test
+    public void acksOncePerIntervalAndHoldsBackWhenUnacked() {
+        EventBatcher batcher = new EventBatcher();
+        EncodingSink sink = new EncodingSink();
+        batcher.onListen(null, sink);
+        // Dart is busy, no ack arrives
+        for (int i = 0; i < 3 * EventBatcher.MAX_IN_FLIGHT; i++) {
+            batcher.onPosition(i);
+            batcher.flush();
+        }
+        assertEquals(EventBatcher.MAX_IN_FLIGHT, sink.batches);
+        assertEquals(EventBatcher.MAX_IN_FLIGHT / EventBatcher.ACK_INTERVAL, sink.acks);
+        assertEquals(EventBatcher.MAX_IN_FLIGHT, sink.pendingAck);
+        // acks are cumulative, the latest one opens the whole window again
+        sink.handled(batcher);
+        batcher.flush();
+        assertEquals(EventBatcher.MAX_IN_FLIGHT + 1, sink.batches);
+    }
+
+    /**
+     * Position ticks at the default interval with the buffer a fixed time ahead, so position and buffer rarely change
+     * together: batches and their acks still take fewer platform messages than one method call per event.
+     */
+    @Test
+    public void steadyPlaybackTakesFewerMessagesThanPerEventCalls() {
+        long[] messages = play(DEFAULT_TICK_MILLIS, false);
+        assertTrue("batched " + messages[0] + ", per event " + messages[1], messages[0] < messages[1]);
+    }
+
+    /**
+     * With a tick per 50 ms nearly every batch is a lone position, acks then cost at most two messages per interval.
+     */
+    @Test
+    public void fastTicksCostNoMoreThanTheAcks() {
+        long[] messages = play(50, false);
+        assertTrue("batched " + messages[0] + ", per event " + messages[1],
+                messages[0] * EventBatcher.ACK_INTERVAL <= messages[1] * (EventBatcher.ACK_INTERVAL + 2));
+    }
+
+    /**
+     * While the buffer fills position and buffer change on every tick and share a batch.
+     */
+    @Test
+    public void fillingBufferTakesFewerMessagesThanPerEventCalls() {
+        long[] messages = play(DEFAULT_TICK_MILLIS, true);
+        assertTrue("batched " + messages[0] + ", per event " + messages[1], messages[0] * 100 < messages[1] * 95);
+    }
+}
@@ -0,0 +1,64 @@
+package com.whaleread.audio_player_with_notification;
+
+import java.util.Map;
+
+/**
+ * Base for test callbacks that only care about some of the events.
+ */
+class NoOpMediaPlayerCallback implements MediaPlayerCallback {
+    @Override
+    public void onStatus(int status, String message) {
+    }
+
+    @Override
+    public void onDuration(long duration) {
+    }
+
+    @Override
+    public void onPosition(long position) {
+    }
+
+    @Override
+    public void onBuffer(int percent) {
+    }
+
+    @Override
+    public void onResumeLatency(long latency, boolean warm) {
+    }
+
+    @Override
+    public void onTrackIndexChanged(int index) {
+    }
+
+    @Override
+    public void onPrefetchUsed(String url, long prefetchedBytes, long usedBytes) {
+    }
+
+    @Override
+    public void onMetrics(Map<String, Object> metrics) {
+    }
+
+    @Override
+    public void onDownloadProgress(String url, int state, long downloadedBytes, long contentLength) {
+    }
+
+    @Override
+    public void onBitrateChanged(int bitrate, String url, String reason) {
+    }
+
+    @Override
+    public void onSleepTimerFired() {
+    }
+
+    @Override
+    public void onCue(int id, long position) {
+    }
+
+    @Override
+    public void onSpeedChanged(float speed, float pitch) {
+    }
+
+    @Override
+    public void onPlayerEvent(int playerId, String method, Object args) {
+    }
+}
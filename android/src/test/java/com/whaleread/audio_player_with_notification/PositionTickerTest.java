@@ -0,0 +1,105 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.os.Handler;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PositionTickerTest {
+    private static final int TICKS = 100_000;
+
+    private static class CountingCallback extends NoOpMediaPlayerCallback {
+        long positions;
+        long buffers;
+        long lastPosition;
+
+        @Override
+        public void onPosition(long position) {
+            positions++;
+            lastPosition = position;
+        }
+
+        @Override
+        public void onBuffer(int percent) {
+            buffers++;
+        }
+    }
+
+    private static class AdvancingSource implements PositionTicker.Source {
+        long position;
+        int bufferedPercent;
+
+        @Override
+        public boolean isTicking() {
+            return true;
+        }
+
+        @Override
+        public long getPosition() {
+            return position += 200;
+        }
+
+        @Override
+        public int getBufferedPercent() {
+            return bufferedPercent = (bufferedPercent + 1) % 100;
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void reportsChangedValuesOnly() {
+        CountingCallback callback = new CountingCallback();
+        PositionTicker ticker = new PositionTicker(new Handler(), new PositionTicker.Source() {
+            @Override
+            public boolean isTicking() {
+                return true;
+            }
+
+            @Override
+            public long getPosition() {
+                return 1000;
+            }
+
+            @Override
+            public int getBufferedPercent() {
+                return 50;
+            }
+        });
+        ticker.setCallback(callback);
+        ticker.run();
+        ticker.run();
+        assertEquals(1, callback.positions);
+        assertEquals(1, callback.buffers);
+        ticker.reset();
+        ticker.run();
+        assertEquals(2, callback.positions);
+    }
+
+    @Test
+    public void tickDoesNotAllocate() {
+        CountingCallback callback = new CountingCallback();
+        PositionTicker ticker = new PositionTicker(new Handler(), new AdvancingSource());
+        ticker.setCallback(callback);
+        // warm up so class loading and compilation are not counted
+        for (int i = 0; i < TICKS; i++) {
+            ticker.run();
+        }
+        allocatedBytes();
+        long before = allocatedBytes();
+        for (int i = 0; i < TICKS; i++) {
+            ticker.run();
+        }
+        long allocated = allocatedBytes() - before;
+        assertEquals(2L * TICKS, callback.positions);
+        // a single boxed long per tick would be 1.6 MB, leave room for the measurement itself
+        assertTrue("allocated " + allocated + " bytes over " + TICKS + " ticks", allocated < 64 * 1024);
+    }
+}
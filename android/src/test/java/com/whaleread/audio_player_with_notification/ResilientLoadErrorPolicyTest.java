@@ -0,0 +1,115 @@
+package com.whaleread.audio_player_with_notification;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ParserException;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.FileDataSource;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.Loader;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSink;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResilientLoadErrorPolicyTest {
+    private static final int SAMPLES = 1000;
+    private static final DataSpec DATA_SPEC = new DataSpec(null);
+
+    private final PlaybackMetrics metrics = new PlaybackMetrics();
+    private boolean connected = true;
+    private final ResilientLoadErrorPolicy policy = new ResilientLoadErrorPolicy(metrics, () -> connected);
+
+    private static IOException responseCode(int code) {
+        return new HttpDataSource.InvalidResponseCodeException(code, Collections.emptyMap(), DATA_SPEC);
+    }
+
+    private long retryDelay(IOException e, int errorCount) {
+        return policy.getRetryDelayMsFor(C.DATA_TYPE_MEDIA, 0, e, errorCount);
+    }
+
+    @Test
+    public void networkErrorsAreTransient() {
+        assertTrue(ResilientLoadErrorPolicy.isTransient(new IOException()));
+        assertTrue(ResilientLoadErrorPolicy.isTransient(new SocketTimeoutException()));
+        assertTrue(ResilientLoadErrorPolicy.isTransient(new UnknownHostException()));
+        assertTrue(ResilientLoadErrorPolicy.isTransient(new HttpDataSource.HttpDataSourceException(new IOException(), DATA_SPEC,
+                HttpDataSource.HttpDataSourceException.TYPE_READ)));
+        assertTrue(ResilientLoadErrorPolicy.isTransient(responseCode(408)));
+        assertTrue(ResilientLoadErrorPolicy.isTransient(responseCode(429)));
+        assertTrue(ResilientLoadErrorPolicy.isTransient(responseCode(500)));
+        assertTrue(ResilientLoadErrorPolicy.isTransient(responseCode(503)));
+    }
+
+    @Test
+    public void otherErrorsAreFatal() {
+        assertFalse(ResilientLoadErrorPolicy.isTransient(responseCode(403)));
+        assertFalse(ResilientLoadErrorPolicy.isTransient(responseCode(404)));
+        assertFalse(ResilientLoadErrorPolicy.isTransient(new HttpDataSource.InvalidContentTypeException("text/html", DATA_SPEC)));
+        assertFalse(ResilientLoadErrorPolicy.isTransient(new ParserException("unparsable")));
+        assertFalse(ResilientLoadErrorPolicy.isTransient(new FileDataSource.FileDataSourceException(new IOException())));
+        assertFalse(ResilientLoadErrorPolicy.isTransient(new Loader.UnexpectedLoaderException(new IllegalStateException())));
+        assertFalse(ResilientLoadErrorPolicy.isTransient(new CacheDataSink.CacheDataSinkException(new IOException())));
+
+        assertEquals(C.TIME_UNSET, retryDelay(responseCode(404), 1));
+        assertEquals(1L, metrics.snapshot().get("loadFailures"));
+        assertEquals(0L, metrics.snapshot().get("loadRetries"));
+    }
+
+    @Test
+    public void backoffDoublesUpToMaximumWithHalfOfItJitter() {
+        long backoff = ResilientLoadErrorPolicy.BASE_DELAY_MS;
+        for (int errorCount = 1; errorCount <= ResilientLoadErrorPolicy.MAX_RETRIES; errorCount++) {
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < SAMPLES; i++) {
+                long delay = retryDelay(new SocketTimeoutException(), errorCount);
+                min = Math.min(min, delay);
+                max = Math.max(max, delay);
+            }
+            assertTrue("error " + errorCount + " min " + min, min >= backoff / 2);
+            assertTrue("error " + errorCount + " max " + max, max <= backoff);
+            // jittered, and spread over most of the upper half
+            assertTrue("error " + errorCount + " spread " + (max - min), max - min > backoff / 4);
+            backoff = Math.min(ResilientLoadErrorPolicy.MAX_DELAY_MS, backoff * 2);
+        }
+        assertEquals(500, ResilientLoadErrorPolicy.BASE_DELAY_MS);
+        assertEquals(8000, ResilientLoadErrorPolicy.MAX_DELAY_MS);
+    }
+
+    @Test
+    public void givesUpAfterMaxRetriesWhileOnline() {
+        for (int errorCount = 1; errorCount <= ResilientLoadErrorPolicy.MAX_RETRIES; errorCount++) {
+            assertNotEquals(C.TIME_UNSET, retryDelay(responseCode(503), errorCount));
+        }
+        assertEquals(C.TIME_UNSET, retryDelay(responseCode(503), ResilientLoadErrorPolicy.MAX_RETRIES + 1));
+        assertEquals((long) ResilientLoadErrorPolicy.MAX_RETRIES, metrics.snapshot().get("loadRetries"));
+        assertEquals(1L, metrics.snapshot().get("loadFailures"));
+    }
+
+    @Test
+    public void retriesIndefinitelyWhileOffline() {
+        connected = false;
+        for (int errorCount = 1; errorCount <= 100; errorCount++) {
+            long delay = retryDelay(new UnknownHostException(), errorCount);
+            assertTrue(delay != C.TIME_UNSET && delay <= ResilientLoadErrorPolicy.MAX_DELAY_MS);
+        }
+        // a fatal error fails offline too
+        assertEquals(C.TIME_UNSET, retryDelay(responseCode(404), 1));
+        connected = true;
+        assertEquals(C.TIME_UNSET, retryDelay(new UnknownHostException(), ResilientLoadErrorPolicy.MAX_RETRIES + 1));
+    }
+
+    @Test
+    public void leavesLoadsToThePolicy() {
+        assertEquals(Integer.MAX_VALUE, policy.getMinimumLoadableRetryCount(C.DATA_TYPE_MEDIA));
+    }
+}
@@ -0,0 +1,215 @@
+package com.whaleread.audio_player_with_notification;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.Loader;
+import com.google.android.exoplayer2.util.Util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Drives a load over the service's http stack through ExoPlayer's {@link Loader} and {@link ResilientLoadErrorPolicy}, the
+ * way a progressive media period loads, against a server that drops the connection and then answers 503.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ResilientLoadTest {
+    private static final int LENGTH = 256 * 1024;
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private final byte[] content = new byte[LENGTH];
+    private final PlaybackMetrics metrics = new PlaybackMetrics();
+    private final ResilientLoadErrorPolicy policy = new ResilientLoadErrorPolicy(metrics, () -> true);
+    private final List<RecordedRequest> requests = new ArrayList<>();
+    private MockWebServer server;
+    private HttpStack httpStack;
+    private Loader loader;
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                synchronized (requests) {
+                    requests.add(request);
+                    switch (requests.size()) {
+                        case 1:
+                            return new MockResponse().setBody(new Buffer().write(content))
+                                    .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+                        case 2:
+                            return new MockResponse().setResponseCode(503);
+                        default:
+                            return partial(request.getHeader("Range"));
+                    }
+                }
+            }
+        });
+        server.start();
+        httpStack = new HttpStack(true, "test", metrics);
+        loader = new Loader("ResilientLoadTest");
+        ShadowLooper.pauseMainLooper();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        loader.release();
+        httpStack.release();
+        server.shutdown();
+    }
+
+    private MockResponse partial(String range) {
+        if (range == null || !range.startsWith("bytes=") || !range.endsWith("-")) {
+            return new MockResponse().setResponseCode(416);
+        }
+        int start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+        return new MockResponse().setResponseCode(206)
+                .setHeader("Content-Range", "bytes " + start + "-" + (LENGTH - 1) + "/" + LENGTH)
+                .setBody(new Buffer().write(Arrays.copyOfRange(content, start, LENGTH)));
+    }
+
+    /**
+     * Reads from the position it got to, as a progressive media period's loadable resumes its extractor input.
+     */
+    private static class ProgressiveLoadable implements Loader.Loadable {
+        private final DataSource dataSource;
+        private final Uri uri;
+        private final ByteArrayOutputStream loaded = new ByteArrayOutputStream();
+        final List<Long> openedAt = new ArrayList<>();
+        private volatile boolean canceled = false;
+
+        ProgressiveLoadable(DataSource dataSource, Uri uri) {
+            this.dataSource = dataSource;
+            this.uri = uri;
+        }
+
+        long position() {
+            return loaded.size();
+        }
+
+        @Override
+        public void cancelLoad() {
+            canceled = true;
+        }
+
+        @Override
+        public void load() throws IOException {
+            long position = position();
+            openedAt.add(position);
+            try {
+                dataSource.open(new DataSpec(uri, position, C.LENGTH_UNSET, null));
+                byte[] buffer = new byte[8192];
+                int read;
+                while (!canceled && (read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+                    loaded.write(buffer, 0, read);
+                }
+            } finally {
+                Util.closeQuietly(dataSource);
+            }
+        }
+    }
+
+    /**
+     * Asks the policy on each error as a progressive media period does, a {@link C#TIME_UNSET} delay would be a player error.
+     */
+    private class RetryingCallback implements Loader.Callback<ProgressiveLoadable> {
+        final List<IOException> errors = new ArrayList<>();
+        final List<Long> retryDelays = new ArrayList<>();
+        IOException fatal;
+        boolean completed = false;
+
+        @Override
+        public void onLoadCompleted(ProgressiveLoadable loadable, long elapsedRealtimeMs, long loadDurationMs) {
+            completed = true;
+        }
+
+        @Override
+        public void onLoadCanceled(ProgressiveLoadable loadable, long elapsedRealtimeMs, long loadDurationMs, boolean released) {
+        }
+
+        @Override
+        public Loader.LoadErrorAction onLoadError(ProgressiveLoadable loadable, long elapsedRealtimeMs, long loadDurationMs,
+                                                  IOException error, int errorCount) {
+            errors.add(error);
+            long retryDelayMs = policy.getRetryDelayMsFor(C.DATA_TYPE_MEDIA, loadDurationMs, error, errorCount);
+            if (retryDelayMs == C.TIME_UNSET) {
+                fatal = error;
+                return Loader.DONT_RETRY_FATAL;
+            }
+            retryDelays.add(retryDelayMs);
+            return Loader.createRetryAction(false, retryDelayMs);
+        }
+    }
+
+    @Test
+    public void resumesFromLoadedPositionAfterDropAndServerError() throws Exception {
+        ProgressiveLoadable loadable = new ProgressiveLoadable(httpStack.getFactory(HeaderSet.EMPTY).createDataSource(),
+                Uri.parse(server.url("/track.mp3").toString()));
+        RetryingCallback callback = new RetryingCallback();
+        loader.startLoading(loadable, callback, policy.getMinimumLoadableRetryCount(C.DATA_TYPE_MEDIA));
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!callback.completed && callback.fatal == null && System.currentTimeMillis() < deadline) {
+            // runs the loader's callbacks, and its retries without waiting out their backoff
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            Thread.sleep(10);
+        }
+        if (!callback.completed && callback.fatal == null) {
+            fail("load did not finish");
+        }
+
+        assertNull(callback.fatal);
+        loader.maybeThrowError();
+        assertEquals(2, callback.errors.size());
+        assertEquals(HttpDataSource.HttpDataSourceException.TYPE_READ,
+                ((HttpDataSource.HttpDataSourceException) callback.errors.get(0)).type);
+        assertEquals(503, ((HttpDataSource.InvalidResponseCodeException) callback.errors.get(1)).responseCode);
+        assertTrue(callback.retryDelays.get(0) <= ResilientLoadErrorPolicy.BASE_DELAY_MS);
+        assertTrue(callback.retryDelays.get(1) <= 2 * ResilientLoadErrorPolicy.BASE_DELAY_MS);
+
+        // the drop kept what was loaded, both retries asked for the rest only
+        long dropAt = loadable.openedAt.get(1);
+        assertTrue("dropped at " + dropAt, dropAt > 0 && dropAt < LENGTH);
+        assertEquals(Arrays.asList(0L, dropAt, dropAt), loadable.openedAt);
+        assertEquals(3, requests.size());
+        assertNull(requests.get(0).getHeader("Range"));
+        assertEquals("bytes=" + dropAt + "-", requests.get(1).getHeader("Range"));
+        assertEquals("bytes=" + dropAt + "-", requests.get(2).getHeader("Range"));
+        assertArrayEquals(content, loadable.loaded.toByteArray());
+
+        assertEquals(2L, metrics.snapshot().get("loadRetries"));
+        assertEquals(0L, metrics.snapshot().get("loadFailures"));
+    }
+}
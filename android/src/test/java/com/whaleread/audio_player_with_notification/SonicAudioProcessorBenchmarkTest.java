@@ -0,0 +1,81 @@
+package com.whaleread.audio_player_with_notification;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.audio.AudioProcessor;
+import com.google.android.exoplayer2.audio.SonicAudioProcessor;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Per buffer cost of the time-stretch {@link MediaPlayerService#setSpeed} turns on, driven directly rather than through a
+ * player. At 1x the audio sink bypasses the processor, the 1x run shows what Sonic would cost if it did not.
+ */
+public class SonicAudioProcessorBenchmarkTest {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNELS = 2;
+    /**
+     * about 23 ms of audio, in the range of what the audio sink queues per call
+     */
+    private static final int FRAMES_PER_BUFFER = 1024;
+    private static final int WARMUP_BUFFERS = 2000;
+    private static final int BUFFERS = 20000;
+
+    private static ByteBuffer sine() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(FRAMES_PER_BUFFER * CHANNELS * 2).order(ByteOrder.nativeOrder());
+        for (int frame = 0; frame < FRAMES_PER_BUFFER; frame++) {
+            short sample = (short) (Math.sin(2 * Math.PI * 440 * frame / SAMPLE_RATE) * Short.MAX_VALUE / 2);
+            for (int channel = 0; channel < CHANNELS; channel++) {
+                buffer.putShort(sample);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @return output bytes per input byte
+     */
+    private static double run(float speed) throws AudioProcessor.UnhandledFormatException {
+        SonicAudioProcessor processor = new SonicAudioProcessor();
+        processor.setSpeed(speed);
+        processor.setPitch(1);
+        processor.configure(SAMPLE_RATE, CHANNELS, C.ENCODING_PCM_16BIT);
+        processor.flush();
+        ByteBuffer input = sine();
+        long inputBytes = 0;
+        long outputBytes = 0;
+        long nanos = 0;
+        for (int i = 0; i < WARMUP_BUFFERS + BUFFERS; i++) {
+            input.rewind();
+            long start = System.nanoTime();
+            processor.queueInput(input);
+            ByteBuffer output = processor.getOutput();
+            int produced = output.remaining();
+            output.position(output.limit());
+            long elapsed = System.nanoTime() - start;
+            if (i >= WARMUP_BUFFERS) {
+                nanos += elapsed;
+                inputBytes += input.limit();
+                outputBytes += produced;
+            }
+        }
+        double bufferMicros = nanos / 1000.0 / BUFFERS;
+        double bufferAudioMicros = FRAMES_PER_BUFFER * 1_000_000.0 / SAMPLE_RATE;
+        System.out.printf("sonic %.1fx: %.2f us per %d frame buffer, %.3f%% of its playing time%n",
+                speed, bufferMicros, FRAMES_PER_BUFFER, bufferMicros / (bufferAudioMicros / speed) * 100);
+        return (double) outputBytes / inputBytes;
+    }
+
+    @Test
+    public void benchmarkNormalAgainstDoubleSpeed() throws AudioProcessor.UnhandledFormatException {
+        double normal = run(1);
+        double doubled = run(2);
+        assertTrue("1x output ratio " + normal, Math.abs(normal - 1) < 0.01);
+        assertTrue("2x output ratio " + doubled, Math.abs(doubled - 0.5) < 0.01);
+    }
+}
@@ -30,7 +30,7 @@ const songs = [
     "name": "第一集",
     "album": "凡人修仙传之仙界篇",
     "url": "http://180k.ysts8.com:8000/%E7%8E%84%E5%B9%BB%E5%B0%8F%E8%AF%B4/%E5%87%A1%E4%BA%BA%E4%BF%AE%E4%BB%99%E4%BC%A0%E4%B9%8B%E4%BB%99%E7%95%8C%E7%AF%87/001.mp3?10103822300909x1552137864x10103828431569-d729ad9ec4e749585f080ca8bc11da4d?1",
-//    "headers": "{\"User-Agent\": \"Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/72.0.3626.121 Safari/537.36\"}",
+//    "headers": {"User-Agent": "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/72.0.3626.121 Safari/537.36"},
   }
 ];
 
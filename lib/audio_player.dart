@@ -5,6 +5,15 @@ import 'package:flutter/services.dart';
 typedef void TimeChangeHandler(int value);
 typedef void ErrorHandler(String message);
 typedef void AudioPlayerStateChangeHandler(AudioPlayerState state);
+typedef void ResumeLatencyHandler(int latency, bool warm);
+typedef void TrackIndexChangeHandler(int index);
+typedef void PrefetchUsageHandler(String url, int prefetchedBytes, int usedBytes);
+typedef void MetricsHandler(Map<String, dynamic> metrics);
+typedef void DownloadProgressHandler(String url, DownloadState state, int downloadedBytes, int contentLength);
+typedef void BitrateChangeHandler(int bitrate, String url, String reason);
+typedef void SleepTimerHandler();
+typedef void CueHandler(int id, int position);
+typedef void SpeedChangeHandler(double speed, double pitch);
 
 enum AudioPlayerState {
   STOPPED,
@@ -13,12 +22,85 @@ enum AudioPlayerState {
   COMPLETED,
 }
 
+enum DownloadState {
+  QUEUED,
+  DOWNLOADING,
+  COMPLETED,
+  FAILED,
+  CANCELED,
+  /// Part of the content is on disk but nothing is downloading it, [AudioPlayer.download] resumes it.
+  INCOMPLETE,
+}
+
+/// Share of the memory budget set through [AudioPlayer.init] a secondary player may buffer.
+enum PlayerPriority {
+  LOW,
+  NORMAL,
+  HIGH,
+}
+
+/// Buffering of the native player, starting from a preset whose fields can be overridden.
+class BufferingPolicy {
+  /// Small buffers for spoken word on memory constrained devices.
+  static const BufferingPolicy lowMemory = const BufferingPolicy(preset: 'lowMemory');
+
+  /// The ExoPlayer defaults.
+  static const BufferingPolicy balanced = const BufferingPolicy(preset: 'balanced');
+
+  /// Long buffers and a 30s back buffer, for flaky mobile networks.
+  static const BufferingPolicy aggressivePrefetch = const BufferingPolicy(preset: 'aggressivePrefetch');
+
+  final String preset;
+  final int minBufferMs;
+  final int maxBufferMs;
+  final int bufferForPlaybackMs;
+  final int bufferForPlaybackAfterRebufferMs;
+  final int targetBufferBytes;
+  final int backBufferMs;
+
+  const BufferingPolicy({this.preset, this.minBufferMs, this.maxBufferMs, this.bufferForPlaybackMs,
+      this.bufferForPlaybackAfterRebufferMs, this.targetBufferBytes, this.backBufferMs});
+
+  Map<String, dynamic> toMap() => {
+        'preset': preset,
+        'minBufferMs': minBufferMs,
+        'maxBufferMs': maxBufferMs,
+        'bufferForPlaybackMs': bufferForPlaybackMs,
+        'bufferForPlaybackAfterRebufferMs': bufferForPlaybackAfterRebufferMs,
+        'targetBufferBytes': targetBufferBytes,
+        'backBufferMs': backBufferMs,
+      };
+}
+
 /// This represents a single AudioPlayer, that can play one audio at a time (per instance).
 ///
 /// It features methods to play, loop, pause, stop, seek the audio, and some useful hooks for handlers and callbacks.
+///
+/// Commands are applied natively in the order they are called. Their futures complete once the command is applied with the
+/// resulting native status: -1 initial, 0 stopped, 1 playing, 2 paused, 3 completed, 4 error. Redundant commands in a burst
+/// are collapsed: a pause and a resume cancel out, only the last [setVolume] applies, and [setUrl] followed by [play]
+/// prepares once.
+///
+/// Instances with a non-zero [playerId] drive secondary native players, e.g. ambience under narration. They share buffer
+/// memory, connections and the cache with player 0, but support only [play], [pause], [resume], [stop], [seek], [setVolume]
+/// and [dispose], and report state, duration, completion and errors. Their futures complete with 1.
 class AudioPlayer {
+  /// Batches of player events, shared by all instances so the native side streams them once.
+  static final Stream<dynamic> _events =
+      const EventChannel('com.whaleread/audio_player_with_notification/events').receiveBroadcastStream();
+
+  static const MethodChannel _sharedChannel = const MethodChannel('com.whaleread/audio_player_with_notification');
+
+  /// Live instances, each batch is dispatched to all of them and acked once.
+  static final List<AudioPlayer> _players = <AudioPlayer>[];
+
+  static StreamSubscription<dynamic> _eventSubscription;
+
   MethodChannel _channel;
 
+  /// The native player this instance drives, 0 is the main player with the queue and the notification.
+  final int playerId;
+
   /// This enables more verbose logging, if desired.
   static bool logEnabled = false;
 
@@ -36,47 +118,330 @@ class AudioPlayer {
   /// This handler returns the duration of the file, when it's available (it might take a while because it's being downloaded or buffered).
   TimeChangeHandler durationHandler;
 
+  TimeChangeHandler _positionHandler;
+
+  TimeChangeHandler _bufferHandler;
+
+  /// Player 0 instances with a position or buffer handler, the native player ticks at full rate while there is any.
+  static int _positionListeners = 0;
+
+  /// Whether the native side was last told that anyone listens to positions, it starts out assuming so.
+  static bool _nativePositionListening = true;
+
+  /// Whether this instance is counted in [_positionListeners].
+  bool _positionListening = false;
+
   /// This handler updates the current position of the audio. You can use it to make a progress bar, for instance.
-  TimeChangeHandler positionHandler;
+  TimeChangeHandler get positionHandler => _positionHandler;
+
+  void set positionHandler(TimeChangeHandler handler) {
+    _positionHandler = handler;
+    _updatePositionListening();
+  }
 
   /// This handler updates the current buffer percent of the audio. You can use it to make a progress bar, for instance.
-  TimeChangeHandler bufferHandler;
+  TimeChangeHandler get bufferHandler => _bufferHandler;
+
+  void set bufferHandler(TimeChangeHandler handler) {
+    _bufferHandler = handler;
+    _updatePositionListening();
+  }
 
   AudioPlayerStateChangeHandler audioPlayerStateChangeHandler;
 
+  /// This handler reports the milliseconds between a resume and the player being ready to render audio, `warm` tells whether the paused player was kept alive.
+  ResumeLatencyHandler resumeLatencyHandler;
+
+  /// This handler is called with the queue index of the item that starts playing, see [setQueue].
+  TrackIndexChangeHandler trackIndexHandler;
+
+  /// This handler reports how many of the bytes fetched by [prefetch] were read by playback, once the prefetched item stops playing.
+  PrefetchUsageHandler prefetchUsageHandler;
+
+  /// This handler receives the [getMetrics] snapshot every `metricsInterval` milliseconds set through [init].
+  MetricsHandler metricsHandler;
+
+  /// This handler reports the progress of [download]s, `contentLength` is -1 until the server reports it.
+  DownloadProgressHandler downloadProgressHandler;
+
+  /// This handler reports the bits per second of the rendition or HLS/DASH track being played and why it was picked:
+  /// `initial`, `seek`, `resume`, `stall` or `adaptive`. `url` is the [playLadder] rendition, null for HLS and DASH.
+  BitrateChangeHandler bitrateChangeHandler;
+
+  /// This handler is called when the sleep timer set through [setSleepTimer] paused playback.
+  SleepTimerHandler sleepTimerHandler;
+
+  /// This handler is called as playback crosses a cue point set through [setCuePoints], with the cue's index in that list.
+  CueHandler cueHandler;
+
+  /// This handler is called once a [setSpeed] is applied.
+  SpeedChangeHandler speedChangeHandler;
+
+  double _speed = 1.0;
+
+  /// The playback speed last reported by the native player. Positions and durations are in media time, divide them by
+  /// this to get listening time, e.g. the time left is `(duration - position) / speed`.
+  double get speed => _speed;
+
   /// This is called when an unexpected error is thrown in the native code.
   ErrorHandler errorHandler;
 
-  /// Creates a new instance and assigns it with a new random unique id.
-  AudioPlayer() {
-    _channel =
-    const MethodChannel('com.whaleread/audio_player_with_notification')
-      ..setMethodCallHandler(_platformCallHandler);
+  /// Creates an instance driving native player [playerId], instances with the same id drive the same player.
+  AudioPlayer({this.playerId = 0}) {
+    _channel = _sharedChannel;
+    _players.add(this);
+    _eventSubscription ??= _events.listen(_dispatchEventBatch);
+  }
+
+  /// Acks [batch] if it asks for it, once every instance has handled it, even if one of them throws. Acks are cumulative,
+  /// the native side asks for one every few batches.
+  static void _dispatchEventBatch(dynamic batch) {
+    try {
+      for (AudioPlayer player in List<AudioPlayer>.from(_players)) {
+        player._onEventBatch(batch);
+      }
+    } finally {
+      if (batch['ack'] == true) {
+        _sharedChannel.invokeMethod('ackEvents', {'seq': batch['seq']});
+      }
+    }
   }
 
   Future<int> _invokeMethod(String method,
       [Map<String, dynamic> arguments = const {}]) {
+    if (playerId != 0) {
+      arguments = Map<String, dynamic>.from(arguments)..['playerId'] = playerId;
+    }
     return _channel
         .invokeMethod(method, arguments)
         .then((result) => (result as int));
   }
 
-  Future<int> init({bool audioFocus, int positionNotifyInterval, String notificationName}) async {
-    return await _invokeMethod('init', {'audioFocus': audioFocus, 'positionNotifyInterval': positionNotifyInterval, 'enableLogging': logEnabled, 'notificationName': notificationName});
+  /// [warmPause] keeps the paused player and its buffer alive, it is released after [warmPauseTimeout] milliseconds or under memory pressure.
+  ///
+  /// [cacheEnabled] caches streamed audio on disk up to [cacheMaxBytes], least recently used content is evicted first.
+  /// [cacheIgnoredQueryParams] are left out of cache keys, they default to common url signing parameters, `*` ignores the whole query.
+  ///
+  /// [useOkHttp] selects the pooled OkHttp stack (default) or the platform HttpURLConnection one.
+  ///
+  /// [metricsInterval] pushes playback metrics to [metricsHandler] every that many milliseconds.
+  ///
+  /// [bufferingPolicy] sizes the player buffers, it defaults to [BufferingPolicy.balanced].
+  ///
+  /// [maxParallelDownloads] limits how many [download]s run at the same time, default 2.
+  ///
+  /// [audioOnly] builds the player with only the audio renderer and the MP3, AAC, M4A, Ogg and WebM extractors, default true.
+  ///
+  /// [memoryBudgetBytes] caps the buffer memory of all players together, a player may fill all of it at [PlayerPriority.HIGH],
+  /// half at [PlayerPriority.NORMAL] and a quarter at [PlayerPriority.LOW]. Player 0 has high priority.
+  Future<int> init({bool audioFocus, int positionNotifyInterval, String notificationName, bool warmPause, int warmPauseTimeout,
+      bool cacheEnabled, int cacheMaxBytes, List<String> cacheIgnoredQueryParams, bool useOkHttp, int metricsInterval,
+      BufferingPolicy bufferingPolicy, int maxParallelDownloads, bool audioOnly, int memoryBudgetBytes}) async {
+    _nativePositionListening = _positionListeners > 0;
+    return await _invokeMethod('init', {'audioFocus': audioFocus, 'positionNotifyInterval': positionNotifyInterval, 'enableLogging': logEnabled, 'notificationName': notificationName, 'warmPause': warmPause, 'warmPauseTimeout': warmPauseTimeout, 'positionListening': _nativePositionListening,
+      'cacheEnabled': cacheEnabled, 'cacheMaxBytes': cacheMaxBytes, 'cacheIgnoredQueryParams': cacheIgnoredQueryParams, 'useOkHttp': useOkHttp,
+      'metricsInterval': metricsInterval, 'bufferingPolicy': bufferingPolicy?.toMap(),
+      'maxParallelDownloads': maxParallelDownloads, 'audioOnly': audioOnly, 'memoryBudgetBytes': memoryBudgetBytes});
+  }
+
+  /// Changes options given to [init], null ones are left unchanged.
+  ///
+  /// A new [bufferingPolicy] or [audioOnly] applies once the player is rebuilt, e.g. on the next [play], the current one is reported in [getMetrics].
+  Future<int> updateOptions({bool audioFocus, int positionNotifyInterval, bool warmPause, int warmPauseTimeout, BufferingPolicy bufferingPolicy,
+      bool audioOnly}) {
+    return _invokeMethod('updateOptions', {'audioFocus': audioFocus, 'positionNotifyInterval': positionNotifyInterval, 'warmPause': warmPause,
+      'warmPauseTimeout': warmPauseTimeout, 'bufferingPolicy': bufferingPolicy?.toMap(), 'audioOnly': audioOnly});
+  }
+
+  /// Downloads [url] for offline playback, progress is reported to [downloadProgressHandler].
+  ///
+  /// Playing [url] reads the downloaded bytes from disk and streams what is missing. Downloading it again resumes a partial download.
+  Future<int> download(String url, {Map<String, String> headers}) {
+    return _invokeMethod('download', {'url': url, 'headers': headers});
+  }
+
+  Future<int> cancelDownload(String url) {
+    return _invokeMethod('cancelDownload', {'url': url});
+  }
+
+  /// Cancels the download of [url] and deletes its downloaded bytes.
+  Future<int> removeDownload(String url) {
+    return _invokeMethod('removeDownload', {'url': url});
+  }
+
+  /// Returns `url`, `state` (a [DownloadState] index), `downloadedBytes` and `contentLength` of each download.
+  Future<List<Map<String, dynamic>>> getDownloads() async {
+    List<dynamic> downloads = await _channel.invokeMethod('getDownloads');
+    return downloads?.map((download) => Map<String, dynamic>.from(download))?.toList();
+  }
+
+  /// Returns `connectionsOpened`, `connectionsReused` and `connectMillis` of the shared http stack.
+  Future<Map<String, int>> getHttpStats() async {
+    Map<dynamic, dynamic> stats = await _channel.invokeMethod('getHttpStats');
+    return stats == null ? null : Map<String, int>.from(stats);
+  }
+
+  /// Returns playback metrics: `ttfaDns`, `ttfaConnect`, `ttfaFirstByte`, `ttfaPrepare`, `ttfaReady`, `stalls`, `seekToReady`,
+  /// `bandwidthKbps`, `seeksPerDrag`, `requestsPerDrag` and `restoreToReady` as maps of `count`, `mean`, `p50`, `p95` and `max`, plus `rebuffers`, `stallMillis`, `bytesDownloaded`, `rebuilds`
+  /// and the `bufferingPolicy` in use.
+  ///
+  /// `commandMicros` times each command on the native playback thread, which is what it used to cost the main thread,
+  /// `commandPostMicros` is what handing it over costs the main thread now. `commands` counts `submitted` and `collapsed` commands.
+  ///
+  /// `loadRetries` counts transient network errors retried in place with backoff, `loadFailures` the load errors surfaced to
+  /// the player, and `errorRecoveries` players that failed offline and were resumed once `connected` again.
+  /// `sleepTimerMillis` is the time left on the sleep timer, -1 if none is set.
+  /// `cpuPermilleNormal` and `cpuPermilleStretched` sample process CPU per mille of playing time at normal and other
+  /// [speed]s, `speed` and `pitch` are the ones in use.
+  Future<Map<String, dynamic>> getMetrics() async {
+    Map<dynamic, dynamic> metrics = await _channel.invokeMethod('getMetrics');
+    return metrics == null ? null : Map<String, dynamic>.from(metrics);
+  }
+
+  /// Returns `received` native events, `batches` sent to Dart, position and buffer samples dropped under backpressure as `droppedSamples`,
+  /// events dropped while no instance listened as `droppedEvents`, and `flushMicros` spent sending batches on the main thread.
+  Future<Map<String, int>> getEventStats() async {
+    Map<dynamic, dynamic> stats = await _channel.invokeMethod('getEventStats');
+    return stats == null ? null : Map<String, int>.from(stats);
+  }
+
+  /// Returns `posts` made to the notification manager, `suppressed` notification updates that changed nothing or were coalesced,
+  /// and `startCommandMicros` spent in the last service start.
+  Future<Map<String, int>> getNotificationStats() async {
+    Map<dynamic, dynamic> stats = await _channel.invokeMethod('getNotificationStats');
+    return stats == null ? null : Map<String, int>.from(stats);
+  }
+
+  /// Starts buffering the head of [url] into the disk cache, so a following [play] of it starts instantly.
+  ///
+  /// Fetches [bytes] if set, otherwise [millis] of audio assuming 128kbps. Returns 0 if the disk cache is not enabled through [init].
+  Future<int> prefetch(String url, {Map<String, String> headers, int bytes, int millis}) {
+    return _invokeMethod('prefetch', {'url': url, 'headers': headers, 'bytes': bytes, 'millis': millis});
+  }
+
+  /// Returns `hits`, `misses`, `bytesSaved`, `bytesDownloaded` and `cacheSize` of the disk cache, null if it is disabled.
+  Future<Map<String, int>> getCacheStats() async {
+    Map<dynamic, dynamic> stats = await _channel.invokeMethod('getCacheStats');
+    return stats == null ? null : Map<String, int>.from(stats);
+  }
+
+  /// Pauses playback after [millis], or at the end of the current track if [endOfTrack], whichever comes first, fading the
+  /// volume out over the last [fadeMillis]. Replaces the previous timer, [sleepTimerHandler] is called when it fires.
+  ///
+  /// The timer runs natively without watching positions, so `positionNotifyInterval` can be as coarse as the UI allows.
+  Future<int> setSleepTimer({int millis: 0, bool endOfTrack: false, int fadeMillis: 0}) {
+    return _invokeMethod('setSleepTimer', {'millis': millis, 'endOfTrack': endOfTrack, 'fadeMillis': fadeMillis});
+  }
+
+  Future<int> cancelSleepTimer() {
+    return _invokeMethod('cancelSleepTimer');
+  }
+
+  /// Plays at [speed] times the normal speed, 1.25 to 2 being common for spoken word. [pitch] 1 keeps voices natural.
+  ///
+  /// Applied without rebuilding the player and kept for the players built later, e.g. after a cold resume. The CPU cost of
+  /// the time-stretch is reported in [getMetrics] as `cpuPermilleStretched`, next to `cpuPermilleNormal` at normal speed.
+  Future<int> setSpeed(double speed, {double pitch: 1.0}) {
+    return _invokeMethod('setSpeed', {'speed': speed, 'pitch': pitch});
+  }
+
+  /// Replaces the cue points of the current track with [positions] in milliseconds, e.g. chapter starts or transcript
+  /// sentences. [cueHandler] is called as playback crosses each of them, with its index in [positions].
+  ///
+  /// Cues skipped by a seek are not reported, cues after the position sought back to are reported again. They are
+  /// cleared when another track starts.
+  Future<int> setCuePoints(List<int> positions) {
+    return _invokeMethod('setCuePoints', {'positions': positions});
+  }
+
+  /// Lets the native side slow down position ticks while no instance listens to them, only player 0 reports them.
+  void _updatePositionListening() {
+    bool listening = playerId == 0 && (_positionHandler != null || _bufferHandler != null);
+    if (listening != _positionListening) {
+      _positionListening = listening;
+      _positionListeners += listening ? 1 : -1;
+      _syncPositionListening();
+    }
+  }
+
+  static void _syncPositionListening() {
+    bool listening = _positionListeners > 0;
+    if (listening != _nativePositionListening) {
+      _nativePositionListening = listening;
+      _sharedChannel.invokeMethod('setPositionListening', {'listening': listening});
+    }
   }
 
   Future<int> dispose() async {
+    if (_positionListening) {
+      _positionListening = false;
+      _positionListeners--;
+      _syncPositionListening();
+    }
+    _players.remove(this);
+    if (_players.isEmpty) {
+      await _eventSubscription?.cancel();
+      _eventSubscription = null;
+    }
     return await _invokeMethod('dispose');
   }
 
   /// Play audio. Url can be a remote url (isLocal = false) or a local file system path (isLocal = true).
+  ///
+  /// [headers] holds http headers of [url]. Before 0.9.0 it was a JSON encoded string.
+  ///
+  /// [containerHint] names the container of [url], as `mp3`, `aac`, `m4a`, `ogg`, `opus`, `webm` or a MIME type like `audio/mpeg`,
+  /// so the player checks it against that container only instead of every one it knows. By default it is guessed from the url's extension.
+  /// HLS and DASH streams, hinted as `hls` or `dash` or ending in `.m3u8` or `.mpd`, switch between their audio variants as
+  /// bandwidth allows.
+  ///
+  /// [priority] is the share of the memory budget a secondary player may buffer, player 0 ignores it.
   Future<int> play(String url,
-      {bool isLocal: false, double volume: -1, int position: 0, String headers}) async {
+      {bool isLocal: false, double volume: -1, int position: 0, Map<String, String> headers, String containerHint,
+      PlayerPriority priority: PlayerPriority.NORMAL}) async {
     int result = await _invokeMethod(
-        'play', {'url': url, 'isLocal': isLocal, 'volume': volume, 'position': position, 'headers': headers});
+        'play', {'url': url, 'isLocal': isLocal, 'volume': volume, 'position': position, 'headers': headers, 'containerHint': containerHint,
+      'priority': priority.index});
     return result;
   }
 
+  /// Plays one item published at several bitrates, [urls] holding its renditions and [bitrates] their bits per second.
+  ///
+  /// The rendition the bandwidth estimate affords is picked when playback starts, on a seek, on a cold resume, and one
+  /// step lower when playback stalls for a second. Switches are reported to [bitrateChangeHandler].
+  Future<int> playLadder(List<String> urls, List<int> bitrates,
+      {double volume: -1, int position: 0, Map<String, String> headers, String containerHint}) {
+    return _invokeMethod('playLadder', {'urls': urls, 'bitrates': bitrates, 'volume': volume, 'position': position,
+      'headers': headers, 'containerHint': containerHint});
+  }
+
+  /// Replaces the queue with [urls] and starts playing it from [startIndex].
+  ///
+  /// Items play gaplessly, the next one is buffered while the current one plays. [headers] holds http headers of each item, it may be null.
+  Future<int> setQueue(List<String> urls, {int startIndex: 0, List<Map<String, String>> headers}) {
+    return _invokeMethod('setQueue', {'urls': urls, 'startIndex': startIndex, 'headers': headers});
+  }
+
+  /// Appends [url] to the end of the queue.
+  Future<int> enqueue(String url, {Map<String, String> headers}) {
+    return _invokeMethod('enqueue', {'url': url, 'headers': headers});
+  }
+
+  /// Moves to the next queue item.
+  Future<int> skipNext() {
+    return _invokeMethod('skipNext');
+  }
+
+  /// Moves to the previous queue item.
+  Future<int> skipPrevious() {
+    return _invokeMethod('skipPrevious');
+  }
+
+  /// Moves to the queue item at [index].
+  Future<int> jumpTo(int index) {
+    return _invokeMethod('jumpTo', {'index': index});
+  }
+
   /// Pause the currently playing audio (resumes from this point).
   Future<int> pause() async {
     int result = await _invokeMethod('pause');
@@ -96,8 +461,11 @@ class AudioPlayer {
   }
 
   /// Move the cursor to the desired position.
-  Future<int> seek(int position) {
-    return _invokeMethod('seek', {'position': position});
+  ///
+  /// Pass [dragging] while the user drags a scrubber, such seeks are coalesced and snap to the nearest sync point.
+  /// End the drag with a seek without [dragging], it lands exactly on [position].
+  Future<int> seek(int position, {bool dragging: false}) {
+    return _invokeMethod('seek', {'position': position, 'dragging': dragging});
   }
 
   /// Sets the volume (ampliutde). 0.0 is mute and 1.0 is max, the rest is linear interpolation.
@@ -117,8 +485,9 @@ class AudioPlayer {
 
   /// Changes the url (source), without resuming playback (like play would do).
   ///
-  /// This will keep the resource prepared (on Android) for when resume is called.
-  Future<int> setUrl(String url, {bool isLocal: false, String headers}) {
+  /// This will keep the resource prepared (on Android) for when resume is called. [headers] holds http headers of [url],
+  /// before 0.9.0 it was a JSON encoded string.
+  Future<int> setUrl(String url, {bool isLocal: false, Map<String, String> headers}) {
     return _invokeMethod('setUrl', {'url': url, 'isLocal': isLocal, 'headers': headers});
   }
 
@@ -128,10 +497,33 @@ class AudioPlayer {
     }
   }
 
-  Future<void> _platformCallHandler(MethodCall call) async {
-//    _log('_platformCallHandler call ${call.method} ${call.arguments}');
-    dynamic value = call.arguments;
-    switch (call.method) {
+  /// Handles a batch of `seq`, `status`, the latest `position` and `buffered` if they changed, and discrete `events` in order.
+  ///
+  /// [_dispatchEventBatch] acks the batches that ask for it once all instances handled them, the native side holds back
+  /// further batches while Dart falls behind.
+  void _onEventBatch(dynamic batch) {
+    List<dynamic> events = batch['events'];
+    if (events != null) {
+      for (dynamic event in events) {
+        if ((event['playerId'] ?? 0) == playerId) {
+          _handleEvent(event['method'], event['args']);
+        }
+      }
+    }
+    // position and buffer samples are only tracked for player 0
+    if (playerId == 0) {
+      if (batch['position'] != null && positionHandler != null) {
+        positionHandler(batch['position']);
+      }
+      if (batch['buffered'] != null && bufferHandler != null) {
+        bufferHandler(batch['buffered']);
+      }
+    }
+  }
+
+  void _handleEvent(String method, dynamic value) {
+//    _log('_handleEvent $method $value');
+    switch (method) {
       case 'onPlay':
         state = AudioPlayerState.PLAYING;
         break;
@@ -146,14 +538,50 @@ class AudioPlayer {
           durationHandler(value);
         }
         break;
-      case 'onPosition':
-        if (positionHandler != null) {
-          positionHandler(value);
+      case 'onResumeLatency':
+        if (resumeLatencyHandler != null) {
+          resumeLatencyHandler(value['latency'], value['warm']);
+        }
+        break;
+      case 'onTrackIndexChanged':
+        if (trackIndexHandler != null) {
+          trackIndexHandler(value);
+        }
+        break;
+      case 'onPrefetchUsed':
+        if (prefetchUsageHandler != null) {
+          prefetchUsageHandler(value['url'], value['prefetchedBytes'], value['usedBytes']);
+        }
+        break;
+      case 'onMetrics':
+        if (metricsHandler != null) {
+          metricsHandler(Map<String, dynamic>.from(value));
+        }
+        break;
+      case 'onDownloadProgress':
+        if (downloadProgressHandler != null) {
+          downloadProgressHandler(value['url'], DownloadState.values[value['state']], value['downloadedBytes'], value['contentLength']);
+        }
+        break;
+      case 'onSpeedChanged':
+        _speed = value['speed'];
+        if (speedChangeHandler != null) {
+          speedChangeHandler(value['speed'], value['pitch']);
+        }
+        break;
+      case 'onCue':
+        if (cueHandler != null) {
+          cueHandler(value['id'], value['position']);
+        }
+        break;
+      case 'onSleepTimer':
+        if (sleepTimerHandler != null) {
+          sleepTimerHandler();
         }
         break;
-      case 'onBuffer':
-        if (bufferHandler != null) {
-          bufferHandler(value);
+      case 'onBitrateChanged':
+        if (bitrateChangeHandler != null) {
+          bitrateChangeHandler(value['bitrate'], value['url'], value['reason']);
         }
         break;
       case 'onComplete':
@@ -166,7 +594,7 @@ class AudioPlayer {
         }
         break;
       default:
-        _log('Unknowm method ${call.method} ');
+        _log('Unknowm method $method ');
     }
   }
 }
@@ -18,6 +18,99 @@ void main() {
       expect(calls[0].method, 'play');
       expect(calls[0].arguments['url'], 'internet.com/file.mp3');
     });
+    test('#play with containerHint', () async {
+      calls.clear();
+      AudioPlayer player = new AudioPlayer();
+      await player.play('internet.com/stream', containerHint: 'audio/aac');
+      expect(calls, hasLength(1));
+      expect(calls[0].arguments['containerHint'], 'audio/aac');
+    });
+    test('#play on a secondary player', () async {
+      calls.clear();
+      AudioPlayer player = new AudioPlayer(playerId: 1);
+      await player.play('internet.com/rain.mp3', priority: PlayerPriority.LOW);
+      expect(calls, hasLength(1));
+      expect(calls[0].arguments, allOf(
+          containsPair('playerId', 1),
+          containsPair('priority', 0),
+      ));
+    });
+    test('#playLadder', () async {
+      calls.clear();
+      AudioPlayer player = new AudioPlayer();
+      await player.playLadder(['internet.com/32.mp3', 'internet.com/128.mp3'], [32000, 128000]);
+      expect(calls, hasLength(1));
+      expect(calls[0].method, 'playLadder');
+      expect(calls[0].arguments, allOf(
+          containsPair('urls', ['internet.com/32.mp3', 'internet.com/128.mp3']),
+          containsPair('bitrates', [32000, 128000]),
+      ));
+    });
+    test('#setCuePoints', () async {
+      calls.clear();
+      AudioPlayer player = new AudioPlayer();
+      await player.setCuePoints([60000, 1500, 30000]);
+      expect(calls, hasLength(1));
+      expect(calls[0].method, 'setCuePoints');
+      expect(calls[0].arguments['positions'], [60000, 1500, 30000]);
+    });
+    test('#setSpeed', () async {
+      calls.clear();
+      AudioPlayer player = new AudioPlayer();
+      await player.setSpeed(1.5);
+      expect(calls, hasLength(1));
+      expect(calls[0].method, 'setSpeed');
+      expect(calls[0].arguments, allOf(
+          containsPair('speed', 1.5),
+          containsPair('pitch', 1.0),
+      ));
+    });
+    test('position listening is counted across player 0 instances', () async {
+      AudioPlayer first = new AudioPlayer();
+      AudioPlayer second = new AudioPlayer();
+      AudioPlayer secondary = new AudioPlayer(playerId: 1);
+      first.positionHandler = (int position) {};
+      second.bufferHandler = (int percent) {};
+      secondary.positionHandler = (int position) {};
+      calls.clear();
+      first.positionHandler = null;
+      secondary.positionHandler = null;
+      await new Future<void>.delayed(Duration.zero);
+      expect(calls, isEmpty);
+      second.bufferHandler = null;
+      await new Future<void>.delayed(Duration.zero);
+      expect(calls, hasLength(1));
+      expect(calls[0].method, 'setPositionListening');
+      expect(calls[0].arguments['listening'], false);
+      calls.clear();
+      first.positionHandler = (int position) {};
+      await new Future<void>.delayed(Duration.zero);
+      expect(calls, hasLength(1));
+      expect(calls[0].arguments['listening'], true);
+      first.positionHandler = null;
+    });
+    test('#setQueue', () async {
+      calls.clear();
+      AudioPlayer player = new AudioPlayer();
+      await player.setQueue(['internet.com/1.mp3', 'internet.com/2.mp3'], startIndex: 1);
+      expect(calls, hasLength(1));
+      expect(calls[0].method, 'setQueue');
+      expect(calls[0].arguments, allOf(
+          containsPair('urls', ['internet.com/1.mp3', 'internet.com/2.mp3']),
+          containsPair('startIndex', 1),
+      ));
+    });
+    test('#updateOptions', () async {
+      calls.clear();
+      AudioPlayer player = new AudioPlayer();
+      await player.updateOptions(bufferingPolicy: const BufferingPolicy(preset: 'lowMemory', maxBufferMs: 30000));
+      expect(calls, hasLength(1));
+      expect(calls[0].method, 'updateOptions');
+      expect(calls[0].arguments['bufferingPolicy'], allOf(
+          containsPair('preset', 'lowMemory'),
+          containsPair('maxBufferMs', 30000),
+      ));
+    });
     test('updateNotification', () async {
       String title = '一生所爱';
       String subtitle = '电影《大话西游》插曲';